@@ -347,6 +347,7 @@ public class Authenticate extends AppCompatActivity
 	m_databaseHelper = Database.getInstance(getApplicationContext());
 	m_databaseHelper.clearTable("log");
 	m_databaseHelper.clearTable("routing_identities");
+	Kernel.clearRoutingIdentities();
 	prepareListeners();
     }
 
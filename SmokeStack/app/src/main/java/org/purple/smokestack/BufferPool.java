@@ -0,0 +1,284 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BufferPool
+{
+    private static class SizeClass
+    {
+	public ArrayDeque<byte[]> m_buffers = null;
+	public AtomicLong m_allocations = null;
+	public AtomicLong m_inUse = null;
+	public AtomicLong m_reuses = null;
+	public int m_maximumIdle = 0;
+	public int m_size = 0;
+
+	public SizeClass(int size)
+	{
+	    m_allocations = new AtomicLong(0L);
+	    m_buffers = new ArrayDeque<> ();
+	    m_inUse = new AtomicLong(0L);
+	    m_maximumIdle = Math.max
+		(MINIMUM_IDLE_BUFFERS, MAXIMUM_IDLE_BYTES_PER_CLASS / size);
+	    m_reuses = new AtomicLong(0L);
+	    m_size = size;
+	}
+    }
+
+    private final AtomicLong m_leaks = new AtomicLong(0L);
+    private final AtomicLong m_unpooled = new AtomicLong(0L);
+    private final IdentityHashMap<byte[], Long> m_outstanding =
+	new IdentityHashMap<> ();
+    private final SizeClass m_sizeClasses[];
+    private final static int MAXIMUM_IDLE_BYTES_PER_CLASS =
+	8 * 1024 * 1024; // 8 MiB
+    private final static int MINIMUM_IDLE_BUFFERS = 4;
+    private final static int SIZE_CLASSES[] = new int[]
+	{4 * 1024,     // 4 KiB
+	 16 * 1024,    // 16 KiB
+	 64 * 1024,    // 64 KiB
+	 256 * 1024,   // 256 KiB
+	 1024 * 1024}; // 1 MiB
+    private final static long LEAK_AGE = 60000L; // 60 Seconds
+    private static BufferPool s_instance = null;
+
+    private BufferPool()
+    {
+	m_sizeClasses = new SizeClass[SIZE_CLASSES.length];
+
+	for(int i = 0; i < SIZE_CLASSES.length; i++)
+	    m_sizeClasses[i] = new SizeClass(SIZE_CLASSES[i]);
+    }
+
+    private SizeClass sizeClass(int size)
+    {
+	for(SizeClass sizeClass : m_sizeClasses)
+	    if(size <= sizeClass.m_size)
+		return sizeClass;
+
+	return null;
+    }
+
+    public byte[] acquire(int size)
+    {
+	/*
+	** The returned array may be larger than the requested size.
+	** Arrays which exceed the largest size class are not pooled.
+	*/
+
+	SizeClass sizeClass = sizeClass(Math.max(1, size));
+
+	if(sizeClass == null)
+	{
+	    m_unpooled.getAndIncrement();
+	    return new byte[size];
+	}
+
+	byte bytes[] = null;
+
+	synchronized(sizeClass.m_buffers)
+	{
+	    bytes = sizeClass.m_buffers.pollFirst();
+	}
+
+	if(bytes == null)
+	{
+	    bytes = new byte[sizeClass.m_size];
+	    sizeClass.m_allocations.getAndIncrement();
+	}
+	else
+	    sizeClass.m_reuses.getAndIncrement();
+
+	sizeClass.m_inUse.getAndIncrement();
+
+	synchronized(m_outstanding)
+	{
+	    m_outstanding.put(bytes, System.nanoTime());
+	}
+
+	return bytes;
+    }
+
+    public boolean release(byte bytes[])
+    {
+	if(bytes == null)
+	    return false;
+
+	synchronized(m_outstanding)
+	{
+	    /*
+	    ** Ignore foreign arrays and arrays which were released
+	    ** earlier.
+	    */
+
+	    if(m_outstanding.remove(bytes) == null)
+		return false;
+	}
+
+	SizeClass sizeClass = sizeClass(bytes.length);
+
+	if(sizeClass == null || sizeClass.m_size != bytes.length)
+	    return false;
+
+	sizeClass.m_inUse.getAndDecrement();
+
+	synchronized(sizeClass.m_buffers)
+	{
+	    if(sizeClass.m_buffers.size() < sizeClass.m_maximumIdle)
+		sizeClass.m_buffers.offerFirst(bytes);
+	}
+
+	return true;
+    }
+
+    public long idleBytes()
+    {
+	long bytes = 0L;
+
+	for(SizeClass sizeClass : m_sizeClasses)
+	    synchronized(sizeClass.m_buffers)
+	    {
+		bytes += (long) sizeClass.m_size * sizeClass.m_buffers.size();
+	    }
+
+	return bytes;
+    }
+
+    public long inUseBytes()
+    {
+	long bytes = 0L;
+
+	for(SizeClass sizeClass : m_sizeClasses)
+	    bytes += sizeClass.m_size * sizeClass.m_inUse.get();
+
+	return bytes;
+    }
+
+    public long leaks()
+    {
+	return m_leaks.get();
+    }
+
+    public static synchronized BufferPool getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new BufferPool();
+
+	return s_instance;
+    }
+
+    public String statistics()
+    {
+	StringBuilder stringBuilder = new StringBuilder();
+
+	for(SizeClass sizeClass : m_sizeClasses)
+	{
+	    int idle = 0;
+
+	    synchronized(sizeClass.m_buffers)
+	    {
+		idle = sizeClass.m_buffers.size();
+	    }
+
+	    stringBuilder.append(sizeClass.m_size / 1024);
+	    stringBuilder.append(" KiB: ");
+	    stringBuilder.append(idle);
+	    stringBuilder.append(" Idle, ");
+	    stringBuilder.append(sizeClass.m_inUse.get());
+	    stringBuilder.append(" In Use, ");
+	    stringBuilder.append(sizeClass.m_allocations.get());
+	    stringBuilder.append(" Allocated, ");
+	    stringBuilder.append(sizeClass.m_reuses.get());
+	    stringBuilder.append(" Reused\n");
+	}
+
+	stringBuilder.append(m_leaks.get());
+	stringBuilder.append(" Leaked, ");
+	stringBuilder.append(m_unpooled.get());
+	stringBuilder.append(" Unpooled");
+	return stringBuilder.toString();
+    }
+
+    public void clear()
+    {
+	for(SizeClass sizeClass : m_sizeClasses)
+	    synchronized(sizeClass.m_buffers)
+	    {
+		sizeClass.m_buffers.clear();
+	    }
+    }
+
+    public void detectLeaks()
+    {
+	/*
+	** Buffers which have not been released within LEAK_AGE are
+	** forgotten and reported.
+	*/
+
+	long count = 0L;
+	long now = System.nanoTime();
+
+	synchronized(m_outstanding)
+	{
+	    Iterator<Map.Entry<byte[], Long>> it =
+		m_outstanding.entrySet().iterator();
+
+	    while(it.hasNext())
+	    {
+		Map.Entry<byte[], Long> entry = it.next();
+
+		if((now - entry.getValue()) / 1000000L > LEAK_AGE)
+		{
+		    SizeClass sizeClass = sizeClass(entry.getKey().length);
+
+		    if(sizeClass != null)
+			sizeClass.m_inUse.getAndDecrement();
+
+		    count += 1;
+		    it.remove();
+		}
+	    }
+	}
+
+	if(count > 0L)
+	{
+	    m_leaks.getAndAdd(count);
+	    Database.getInstance().writeLog
+		("BufferPool::detectLeaks(): " +
+		 count +
+		 " buffer(s) were not released.");
+	}
+    }
+}
@@ -30,6 +30,10 @@ package org.purple.smokestack;
 public class ClientElement
 {
     public String m_address = "";
+    public int m_listenerOid = -1;
+    public long m_bytesRead = 0L;
+    public long m_bytesWritten = 0L;
+    public long m_uptime = 0L; // Milliseconds
 
     public ClientElement()
     {
@@ -0,0 +1,101 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+** An immutable listing of the remote clients of all listeners.
+** A snapshot is built once per refresh and is sorted by address.
+*/
+
+public class ClientsSnapshot
+{
+    private final List<ClientElement> m_clients;
+    private final long m_timestamp;
+    private final long m_version;
+    private final static Comparator<ClientElement> s_addressComparator =
+	new Comparator<ClientElement> ()
+	{
+	    @Override
+	    public int compare(ClientElement e1, ClientElement e2)
+	    {
+		return e1.m_address.compareTo(e2.m_address);
+	    }
+	};
+
+    public ClientsSnapshot(ArrayList<ClientElement> clients, long version)
+    {
+	if(clients == null)
+	    clients = new ArrayList<> ();
+
+	Collections.sort(clients, s_addressComparator);
+	m_clients = Collections.unmodifiableList(clients);
+	m_timestamp = System.currentTimeMillis();
+	m_version = version;
+    }
+
+    public ClientElement get(int position)
+    {
+	if(position < 0 || position >= m_clients.size())
+	    return null;
+
+	return m_clients.get(position);
+    }
+
+    public List<ClientElement> page(int offset, int count)
+    {
+	/*
+	** Returns at most count clients beginning at offset.
+	*/
+
+	int from = Math.max(0, Math.min(offset, m_clients.size()));
+	int to = Math.min(m_clients.size(), from + Math.max(0, count));
+
+	return m_clients.subList(from, to);
+    }
+
+    public int size()
+    {
+	return m_clients.size();
+    }
+
+    public long timestamp()
+    {
+	return m_timestamp;
+    }
+
+    public long version()
+    {
+	return m_version;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+
+/*
+** Connectivity is determined whenever the platform reports a change
+** and is otherwise read from a volatile flag. Network callbacks require
+** Android 5.0. Older releases observe CONNECTIVITY_ACTION broadcasts.
+*/
+
+public class ConnectivityMonitor
+{
+    public interface Probe
+    {
+	public boolean connected();
+    }
+
+    private static class PlatformProbe implements Probe
+    {
+	@Override
+	public boolean connected()
+	{
+	    try
+	    {
+		ConnectivityManager connectivityManager = (ConnectivityManager)
+		    SmokeStack.getApplication().getApplicationContext().
+		    getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo networkInfo = connectivityManager.
+		    getActiveNetworkInfo();
+
+		return networkInfo != null && networkInfo.isConnected();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+
+	    return false;
+	}
+    }
+
+    private volatile Probe m_probe = new PlatformProbe();
+    private volatile boolean m_connected = false;
+    private final static long REFRESH_INTERVAL = 15000L; // 15 Seconds
+    private static ConnectivityMonitor s_instance = null;
+
+    private ConnectivityMonitor()
+    {
+	refresh();
+	register();
+
+	/*
+	** Notifications may be lost. The state is also refreshed
+	** periodically.
+	*/
+
+	TimerWheel.getInstance().schedule(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		refresh();
+	    }
+	}, REFRESH_INTERVAL, REFRESH_INTERVAL);
+    }
+
+    private void register()
+    {
+	try
+	{
+	    Context context = SmokeStack.getApplication().
+		getApplicationContext();
+
+	    if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+	    {
+		ConnectivityManager connectivityManager = (ConnectivityManager)
+		    context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkRequest networkRequest = new NetworkRequest.Builder().
+		    addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).
+		    build();
+
+		connectivityManager.registerNetworkCallback
+		    (networkRequest, new ConnectivityManager.NetworkCallback()
+		    {
+			@Override
+			public void onAvailable(Network network)
+			{
+			    refresh();
+			}
+
+			@Override
+			public void onLost(Network network)
+			{
+			    refresh();
+			}
+		    });
+	    }
+	    else
+	    {
+		IntentFilter intentFilter = new IntentFilter
+		    (ConnectivityManager.CONNECTIVITY_ACTION);
+
+		context.registerReceiver(new BroadcastReceiver()
+		{
+		    @Override
+		    public void onReceive(Context context, Intent intent)
+		    {
+			refresh();
+		    }
+		}, intentFilter);
+	    }
+	}
+	catch(Exception exception)
+	{
+	}
+    }
+
+    public String activeInterfaceName()
+    {
+	/*
+	** The name of the default network's interface. Requires
+	** Android 6.0.
+	*/
+
+	if(Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+	    return null;
+
+	try
+	{
+	    ConnectivityManager connectivityManager = (ConnectivityManager)
+		SmokeStack.getApplication().getApplicationContext().
+		getSystemService(Context.CONNECTIVITY_SERVICE);
+	    Network network = connectivityManager.getActiveNetwork();
+
+	    if(network == null)
+		return null;
+
+	    LinkProperties linkProperties = connectivityManager.
+		getLinkProperties(network);
+
+	    if(linkProperties != null)
+		return linkProperties.getInterfaceName();
+	}
+	catch(Exception exception)
+	{
+	}
+
+	return null;
+    }
+
+    public boolean connected()
+    {
+	return m_connected;
+    }
+
+    public static synchronized ConnectivityMonitor getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new ConnectivityMonitor();
+
+	return s_instance;
+    }
+
+    public void refresh()
+    {
+	Probe probe = m_probe;
+
+	if(probe != null)
+	    m_connected = probe.connected();
+    }
+
+    public void setProbe(Probe probe)
+    {
+	/*
+	** Headless environments may supply their own probe. A null
+	** probe restores the platform's.
+	*/
+
+	if(probe == null)
+	    m_probe = new PlatformProbe();
+	else
+	    m_probe = probe;
+
+	refresh();
+    }
+}
@@ -45,6 +45,8 @@ import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
@@ -63,6 +65,18 @@ public class Cryptography
 	Security.addProvider(new BouncyCastlePQCProvider());
     }
 
+    private static class DerivedStreamKey
+    {
+	public final String m_key;
+	public final long m_generation;
+
+	public DerivedStreamKey(String key, long generation)
+	{
+	    m_generation = generation;
+	    m_key = key;
+	}
+    }
+
     private SecretKey m_encryptionKey = null;
     private SecretKey m_macKey = null;
     private final ReentrantReadWriteLock m_encryptionKeyMutex =
@@ -86,10 +100,29 @@ public class Cryptography
     private final static String SYMMETRIC_ALGORITHM = "AES";
     private final static String SYMMETRIC_CIPHER_TRANSFORMATION =
 	"AES/CBC/PKCS7Padding";
+    private final static int DERIVED_STREAMS_CAPACITY = 256;
     private final static int OZONE_STREAM_CREATION_ITERATION_COUNT = 4096;
     private final static int SIPHASH_STREAM_CREATION_ITERATION_COUNT = 4096;
     private static Cryptography s_instance = null;
     private static SecureRandom s_secureRandom = null;
+    private static byte s_derivedStreamsKey[] = null;
+    private static long s_derivedStreamsGeneration = 0L;
+    private final static LinkedHashMap<String, byte[]> s_derivedStreams =
+	new LinkedHashMap<String, byte[]> (16, 0.75f, true)
+	{
+	    @Override
+	    protected boolean removeEldestEntry
+		(Map.Entry<String, byte[]> entry)
+	    {
+		if(size() > DERIVED_STREAMS_CAPACITY)
+		{
+		    Arrays.fill(entry.getValue(), (byte) 0);
+		    return true;
+		}
+
+		return false;
+	    }
+	};
     private final static String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
     private final static String SHAX_ALGORITHM = "SHA-512";
     public final static int CIPHER_IV_LENGTH = 16;
@@ -106,6 +139,86 @@ public class Cryptography
 	prepareSecureRandom();
     }
 
+    private static DerivedStreamKey derivedStreamKey
+	(String domain, byte data[])
+    {
+	/*
+	** Derived streams are keyed by an HMAC of their inputs so
+	** that the inputs themselves are not retained. The HMAC key is
+	** random and is replaced whenever the streams are cleared. A
+	** copy of the memory therefore cannot be used to test guesses.
+	** The generation identifies the HMAC key.
+	*/
+
+	byte bytes[] = null;
+	byte input[] = Miscellaneous.joinByteArrays
+	    (domain.getBytes(StandardCharsets.UTF_8), data);
+	long generation = 0L;
+
+	synchronized(s_derivedStreams)
+	{
+	    if(s_derivedStreamsKey == null)
+		s_derivedStreamsKey = randomBytes(HASH_KEY_LENGTH);
+
+	    bytes = hmac(input, s_derivedStreamsKey);
+	    generation = s_derivedStreamsGeneration;
+	}
+
+	if(input != null)
+	    Arrays.fill(input, (byte) 0);
+
+	if(bytes == null)
+	    return null;
+
+	return new DerivedStreamKey
+	    (Base64.encodeToString(bytes, Base64.NO_WRAP), generation);
+    }
+
+    private static byte[] derivedStream(DerivedStreamKey key)
+    {
+	if(key == null)
+	    return null;
+
+	synchronized(s_derivedStreams)
+	{
+	    byte bytes[] = s_derivedStreams.get(key.m_key);
+
+	    if(bytes != null)
+		return Arrays.copyOf(bytes, bytes.length);
+	}
+
+	return null;
+    }
+
+    private static byte[] saveDerivedStream(DerivedStreamKey key,
+					    byte bytes[])
+    {
+	if(bytes == null || key == null)
+	    return bytes;
+
+	synchronized(s_derivedStreams)
+	{
+	    if(key.m_generation != s_derivedStreamsGeneration)
+	    {
+		/*
+		** The streams were cleared during the derivation.
+		** Its result belongs to the discarded state.
+		*/
+
+		Arrays.fill(bytes, (byte) 0);
+		return null;
+	    }
+
+	    byte previous[] = s_derivedStreams.put
+		(key.m_key, Arrays.copyOf(bytes, bytes.length));
+
+	    if(previous != null)
+		Arrays.fill(previous, (byte) 0);
+	}
+
+	return bytes;
+    }
+
     private static synchronized void prepareSecureRandom()
     {
 	if(s_secureRandom != null)
@@ -604,6 +717,13 @@ public class Cryptography
 	if(string == null || string.trim().isEmpty())
 	    return null;
 
+	DerivedStreamKey key = derivedStreamKey
+	    ("ozone", string.trim().getBytes(StandardCharsets.UTF_8));
+	byte stream[] = derivedStream(key);
+
+	if(stream != null)
+	    return stream;
+
 	try
 	{
 	    byte bytes[] = null;
@@ -625,7 +745,7 @@ public class Cryptography
 		     1,
 		     8 * (CIPHER_KEY_LENGTH + HASH_KEY_LENGTH)); // Bits.
 
-	    return bytes;
+	    return saveDerivedStream(key, bytes);
 	}
 	catch(Exception exception)
 	{
@@ -639,10 +759,18 @@ public class Cryptography
 	if(data == null)
 	    return null;
 
-	return pbkdf2(shaX512(data),
-		      Miscellaneous.byteArrayAsHexString(data).toCharArray(),
-		      SIPHASH_STREAM_CREATION_ITERATION_COUNT,
-		      8 * SipHash.KEY_LENGTH);
+	DerivedStreamKey key = derivedStreamKey("siphash-key", data);
+	byte stream[] = derivedStream(key);
+
+	if(stream != null)
+	    return stream;
+
+	return saveDerivedStream
+	    (key,
+	     pbkdf2(shaX512(data),
+		    Miscellaneous.byteArrayAsHexString(data).toCharArray(),
+		    SIPHASH_STREAM_CREATION_ITERATION_COUNT,
+		    8 * SipHash.KEY_LENGTH));
     }
 
     public static byte[] hmac(byte data[], byte keyBytes[])
@@ -732,6 +860,16 @@ public class Cryptography
 
     public static byte[] sipHashIdStream(String sipHashId)
     {
+	if(sipHashId == null)
+	    return null;
+
+	DerivedStreamKey key = derivedStreamKey
+	    ("siphash-id", sipHashId.getBytes(StandardCharsets.UTF_8));
+	byte stream[] = derivedStream(key);
+
+	if(stream != null)
+	    return stream;
+
 	try
 	{
 	    byte bytes[] = null;
@@ -749,7 +887,7 @@ public class Cryptography
 		     1,
 		     8 * (CIPHER_KEY_LENGTH + HASH_KEY_LENGTH)); // Bits.
 
-	    return bytes;
+	    return saveDerivedStream(key, bytes);
 	}
 	catch(Exception exception)
 	{
@@ -766,8 +904,26 @@ public class Cryptography
 	return s_instance;
     }
 
+    public static void clearDerivedStreams()
+    {
+	synchronized(s_derivedStreams)
+	{
+	    for(byte bytes[] : s_derivedStreams.values())
+		Arrays.fill(bytes, (byte) 0);
+
+	    s_derivedStreams.clear();
+
+	    if(s_derivedStreamsKey != null)
+		Arrays.fill(s_derivedStreamsKey, (byte) 0);
+
+	    s_derivedStreamsGeneration += 1;
+	    s_derivedStreamsKey = randomBytes(HASH_KEY_LENGTH);
+	}
+    }
+
     public void reset()
     {
+	clearDerivedStreams();
 	m_encryptionKeyMutex.writeLock().lock();
 
 	try
@@ -33,6 +33,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Base64;
 import android.util.Patterns;
 import android.util.SparseArray;
@@ -48,9 +49,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
@@ -58,9 +64,45 @@ import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
 
 public class Database extends SQLiteOpenHelper
 {
+    private static class PublicKeyElement
+    {
+	public PublicKey m_publicKey = null;
+	public String m_sipHashIdDigest = "";
+
+	public PublicKeyElement()
+	{
+	}
+    }
+
+    private volatile HashMap<String, MessageTotals> m_messageTotals = null;
     private SQLiteDatabase m_db = null;
+    private SQLiteDatabase m_transientDb = null;
+    private final AtomicBoolean m_messageTotalsStale =
+	new AtomicBoolean(true);
     private final AtomicLong m_cursorsClosed = new AtomicLong(0L);
     private final AtomicLong m_cursorsOpened = new AtomicLong(0L);
+    private final AtomicLong m_publicKeysGeneration = new AtomicLong(0L);
+    private final ConcurrentHashMap<Integer, byte[]> m_remoteCertificates =
+	new ConcurrentHashMap<> ();
+    private final ConcurrentHashMap<String, AtomicLong> m_tableChanges =
+	new ConcurrentHashMap<> ();
+    private final HashMap<String, MessageEnvelope> m_echoEnvelopes =
+	new HashMap<> ();
+    private final HashMap<String, SQLiteStatement> m_statements =
+	new HashMap<> ();
+    private final HashMap<String, SQLiteStatement> m_transientStatements =
+	new HashMap<> ();
+    private final LinkedHashMap<String, ArrayList<PublicKeyElement>>
+	m_publicKeys = new LinkedHashMap<String, ArrayList<PublicKeyElement>>
+	(16, 0.75f, true)
+	{
+	    @Override
+	    protected boolean removeEldestEntry
+		(Map.Entry<String, ArrayList<PublicKeyElement>> entry)
+	    {
+		return size() > PUBLIC_KEYS_CAPACITY;
+	    }
+	};
     private final static Comparator<ListenerElement>
 	s_readListenersComparator = new Comparator<ListenerElement> ()
 	{
@@ -162,46 +204,614 @@ public class Database extends SQLiteOpenHelper
     private final static Comparator<SipHashIdElement>
 	s_readSipHashIdsComparator = new Comparator<SipHashIdElement> ()
 	{
-	    @Override
-	    public int compare(SipHashIdElement e1, SipHashIdElement e2)
-	    {
-		if(e1 == null || e2 == null)
-		    return -1;
+	    @Override
+	    public int compare(SipHashIdElement e1, SipHashIdElement e2)
+	    {
+		if(e1 == null || e2 == null)
+		    return -1;
+
+		/*
+		** Sort by name and Smoke identity.
+		*/
+
+	    	int i = e1.m_name.compareTo(e2.m_name);
+
+		if(i != 0)
+		    return i;
+
+		return e1.m_sipHashId.compareTo(e2.m_sipHashId);
+	    }
+	};
+    private final static ReentrantReadWriteLock s_congestionControlMutex =
+	new ReentrantReadWriteLock();
+    private final static String CONGESTION_CONTROL_TABLE_SQL =
+	"CREATE TABLE IF NOT EXISTS congestion_control (" +
+	"digest TEXT NOT NULL PRIMARY KEY, " +
+	"timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)";
+    private final static String CONTAINS_CONGESTION_DIGEST_SQL =
+	"SELECT EXISTS(SELECT 1 FROM congestion_control WHERE digest = ?)";
+    private final static String CONTAINS_ECHO_MESSAGE_SQL =
+	"SELECT EXISTS(SELECT 1 FROM outbound_queue " +
+	"WHERE echo_queue = 1 AND message_digest = ?)";
+    private final static String COUNT_OUTBOUND_QUEUE_SQL =
+	"SELECT COUNT(*) FROM outbound_queue " +
+	"WHERE echo_queue = ? AND neighbor_oid = ?";
+    private final static String DATABASE_NAME = "smokestack.db";
+    private final static String ENQUEUE_OUTBOUND_MESSAGE_SQL =
+	"INSERT OR IGNORE INTO outbound_queue " +
+	"(echo_queue, message, message_digest, neighbor_oid) " +
+	"VALUES (?, ?, ?, ?)";
+    private final static String OUTBOUND_QUEUE_TABLE_SQL =
+	"CREATE TABLE IF NOT EXISTS outbound_queue (" +
+	"echo_queue INTEGER NOT NULL DEFAULT 0, " +
+	"message TEXT NOT NULL, " +
+	"message_digest TEXT NOT NULL, " +
+	"neighbor_oid INTEGER NOT NULL, " +
+	"PRIMARY KEY (message_digest, neighbor_oid))";
+    private final static String READ_ECHO_MESSAGE_SQL =
+	"SELECT IFNULL((SELECT OID || ',' || message_digest " +
+	"FROM outbound_queue WHERE echo_queue = 1 AND neighbor_oid = ? " +
+	"ORDER BY OID LIMIT 1), '')";
+    private final static String READ_OUTBOUND_MESSAGE_SQL =
+	"SELECT IFNULL((SELECT OID || ',' || message FROM outbound_queue " +
+	"WHERE echo_queue = ? AND neighbor_oid = ? ORDER BY OID LIMIT 1), '')";
+    private final static String TRIM_OUTBOUND_QUEUE_SQL =
+	"DELETE FROM outbound_queue WHERE OID IN " +
+	"(SELECT OID FROM outbound_queue " +
+	"WHERE echo_queue = ? AND neighbor_oid = ? " +
+	"ORDER BY OID DESC LIMIT -1 OFFSET ?)";
+    private final static String WRITE_CONGESTION_DIGEST_SQL =
+	"INSERT OR REPLACE INTO congestion_control (digest) VALUES (?)";
+    private final static int DATABASE_VERSION = 3;
+    private final static int PUBLIC_KEYS_CAPACITY = 256;
+    private final static int SIPHASH_STREAM_CREATION_ITERATION_COUNT = 4096;
+    private final static long ONE_WEEK = 604800000L;
+    private final static long WRITE_PARTICIPANT_TIME_DELTA =
+	60000L; // 60 Seconds
+    private static Database s_instance = null;
+
+    private Database(Context context)
+    {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+	try
+	{
+	    m_db = getWritableDatabase();
+	}
+	catch(Exception exception)
+	{
+	    m_db = null;
+	}
+
+	m_transientDb = createTransientDatabase();
+    }
+
+    private SQLiteDatabase createTransientDatabase()
+    {
+	if(m_db == null)
+	    return null;
+
+	/*
+	** Congestion digests and echo packets are short-lived. They are
+	** kept in a private in-memory database which avoids the main
+	** database's write-ahead log, secure deletion, and vacuuming.
+	** The main database is used if the in-memory database cannot
+	** be created.
+	*/
+
+	SQLiteDatabase db = null;
+
+	try
+	{
+	    db = SQLiteDatabase.create(null);
+	    db.execSQL(CONGESTION_CONTROL_TABLE_SQL);
+	    db.execSQL(OUTBOUND_QUEUE_TABLE_SQL);
+	}
+	catch(Exception exception)
+	{
+	    if(db != null)
+		db.close();
+
+	    return m_db;
+	}
+
+	/*
+	** Discard transient entries which were recorded by the main
+	** database.
+	*/
+
+	m_db.beginTransactionNonExclusive();
+
+	try
+	{
+	    m_db.delete("congestion_control", null, null);
+	    m_db.delete("outbound_queue", "echo_queue = 1", null);
+	    m_db.setTransactionSuccessful();
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_db.endTransaction();
+	}
+
+	return db;
+    }
+
+    private SQLiteStatement statement(SQLiteDatabase db, String sql)
+    {
+	/*
+	** Compiled statements are retained for the lifetime of the
+	** connection. Callers must synchronize on the returned statement
+	** while binding and executing.
+	*/
+
+	HashMap<String, SQLiteStatement> statements =
+	    db == m_db ? m_statements : m_transientStatements;
+
+	synchronized(statements)
+	{
+	    SQLiteStatement statement = statements.get(sql);
+
+	    if(statement == null)
+	    {
+		statement = db.compileStatement(sql);
+		statements.put(sql, statement);
+	    }
+
+	    return statement;
+	}
+    }
+
+    private static PublicKey publicKey(byte bytes[])
+    {
+	if(bytes == null)
+	    return null;
+
+	try
+	{
+	    int length = bytes.length;
+
+	    if(length < 200)
+		return KeyFactory.getInstance("EC").
+		    generatePublic(new X509EncodedKeySpec(bytes));
+	    else if(length < 600)
+		return KeyFactory.getInstance("RSA").
+		    generatePublic(new X509EncodedKeySpec(bytes));
+	    else if(length < 1200)
+		return KeyFactory.getInstance
+		    ("SPHINCS256", BouncyCastlePQCProvider.PROVIDER_NAME).
+		    generatePublic(new X509EncodedKeySpec(bytes));
+	    else
+		return KeyFactory.getInstance
+		    ("Rainbow", BouncyCastlePQCProvider.PROVIDER_NAME).
+		    generatePublic(new X509EncodedKeySpec(bytes));
+	}
+	catch(Exception exception)
+	{
+	}
+
+	return null;
+    }
+
+    private static void bindBoolean(SQLiteStatement statement,
+				    int index,
+				    boolean value)
+    {
+	statement.bindLong(index, value ? 1L : 0L);
+    }
+
+    private static void bindString(SQLiteStatement statement,
+				   int index,
+				   String value)
+    {
+	if(value == null)
+	    statement.bindNull(index);
+	else
+	    statement.bindString(index, value);
+    }
+
+    private HashMap<String, MessageTotals> messageTotals()
+    {
+	/*
+	** The totals of all participants, keyed by their siphash_ids
+	** OIDs. The small message_totals table is read only after
+	** the stack or siphash_ids tables have been modified.
+	*/
+
+	if(!m_messageTotalsStale.getAndSet(false))
+	    return m_messageTotals;
+
+	if(m_db == null)
+	{
+	    m_messageTotalsStale.set(true);
+	    return null;
+	}
+
+	Cursor cursor = null;
+	HashMap<String, MessageTotals> messageTotals = new HashMap<> ();
+
+	try
+	{
+	    cursor = m_db.rawQuery
+		("SELECT IFNULL(m.in_messages, 0), " +
+		 "IFNULL(m.out_messages, 0), " +
+		 "si.OID " +
+		 "FROM siphash_ids si LEFT JOIN message_totals m " +
+		 "ON m.siphash_id_digest = si.siphash_id_digest", null);
+
+	    if(cursor != null)
+		m_cursorsOpened.getAndIncrement();
+
+	    while(cursor != null && cursor.moveToNext())
+	    {
+		MessageTotals totals = new MessageTotals();
+
+		totals.m_inMessages = cursor.getLong(0);
+		totals.m_outMessages = cursor.getLong(1);
+		totals.m_totalMessages = totals.m_inMessages +
+		    totals.m_outMessages;
+		messageTotals.put(String.valueOf(cursor.getInt(2)), totals);
+	    }
+
+	    m_messageTotals = messageTotals;
+	}
+	catch(Exception exception)
+	{
+	    m_messageTotals = null;
+	    m_messageTotalsStale.set(true);
+	}
+	finally
+	{
+	    if(cursor != null)
+	    {
+		cursor.close();
+
+		if(cursor.isClosed())
+		    m_cursorsClosed.getAndIncrement();
+	    }
+	}
+
+	return m_messageTotals;
+    }
+
+    private int insertOutboundMessages(SQLiteDatabase db,
+				       String message,
+				       String digest,
+				       boolean echo,
+				       int oids[],
+				       boolean enqueued[])
+    {
+	int count = 0;
+
+	db.beginTransactionNonExclusive();
+
+	try
+	{
+	    SQLiteStatement statement = statement
+		(db, ENQUEUE_OUTBOUND_MESSAGE_SQL);
+
+	    synchronized(statement)
+	    {
+		bindBoolean(statement, 1, echo);
+		bindString(statement, 2, message);
+		bindString(statement, 3, digest);
+
+		for(int i = 0; i < oids.length; i++)
+		{
+		    statement.bindLong(4, oids[i]);
+
+		    /*
+		    ** Ignored duplicates yield -1.
+		    */
+
+		    if(statement.executeInsert() != -1L)
+		    {
+			count += 1;
+
+			if(enqueued != null)
+			    enqueued[i] = true;
+		    }
+		}
+
+		statement.clearBindings();
+	    }
+
+	    db.setTransactionSuccessful();
+	}
+	catch(Exception exception)
+	{
+	    count = 0;
+
+	    if(enqueued != null)
+		Arrays.fill(enqueued, false);
+	}
+	finally
+	{
+	    db.endTransaction();
+	}
+
+	return count;
+    }
+
+    private void closeStatements()
+    {
+	synchronized(m_statements)
+	{
+	    for(SQLiteStatement statement : m_statements.values())
+		try
+		{
+		    statement.close();
+		}
+		catch(Exception exception)
+		{
+		}
+
+	    m_statements.clear();
+	}
+    }
+
+    private void messageTotalsChanged()
+    {
+	m_messageTotalsStale.set(true);
+    }
+
+    private void publicKeysChanged()
+    {
+	synchronized(m_publicKeys)
+	{
+	    m_publicKeysGeneration.getAndIncrement();
+	    m_publicKeys.clear();
+	}
+    }
+
+    private void releaseEchoEnvelope(String digest)
+    {
+	/*
+	** The caller must synchronize on m_echoEnvelopes.
+	*/
+
+	try
+	{
+	    SQLiteStatement statement = statement
+		(m_transientDb, CONTAINS_ECHO_MESSAGE_SQL);
+	    boolean contains = false;
+
+	    synchronized(statement)
+	    {
+		bindString(statement, 1, digest);
+		contains = statement.simpleQueryForLong() > 0L;
+		statement.clearBindings();
+	    }
+
+	    if(!contains)
+		m_echoEnvelopes.remove(digest);
+	}
+	catch(Exception exception)
+	{
+	}
+    }
+
+    private void sweepEchoEnvelopes()
+    {
+	/*
+	** Discard the envelopes which are no longer referenced
+	** by the echo queue.
+	*/
+
+	if(m_transientDb == null)
+	    return;
+
+	synchronized(m_echoEnvelopes)
+	{
+	    if(m_echoEnvelopes.isEmpty())
+		return;
+
+	    Cursor cursor = null;
+
+	    try
+	    {
+		HashSet<String> digests = new HashSet<> ();
+
+		cursor = m_transientDb.rawQuery
+		    ("SELECT DISTINCT message_digest FROM outbound_queue " +
+		     "WHERE echo_queue = 1", null);
+
+		if(cursor != null)
+		{
+		    m_cursorsOpened.getAndIncrement();
+
+		    while(cursor.moveToNext())
+			digests.add(cursor.getString(0));
+		}
+
+		m_echoEnvelopes.keySet().retainAll(digests);
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	    finally
+	    {
+		if(cursor != null)
+		{
+		    cursor.close();
+
+		    if(cursor.isClosed())
+			m_cursorsClosed.getAndIncrement();
+		}
+	    }
+	}
+    }
+
+    private void tableChanged(String table)
+    {
+	/*
+	** Only configuration changes are counted. Statistics are
+	** written every few seconds and are served from memory.
+	*/
+
+	m_tableChanges.putIfAbsent(table, new AtomicLong(0L));
+	m_tableChanges.get(table).getAndIncrement();
+    }
+
+    private ArrayList<PublicKeyElement> readPublicKeys
+	(Cryptography cryptography, String column, byte digest[])
+    {
+	/*
+	** Participants' signature keys are cached by digest. Misses
+	** and partially-decrypted results are not cached. The
+	** returned list must not be modified.
+	*/
+
+	String key = column + ":" +
+	    Base64.encodeToString(digest, Base64.NO_WRAP);
+
+	synchronized(m_publicKeys)
+	{
+	    ArrayList<PublicKeyElement> arrayList = m_publicKeys.get(key);
+
+	    if(arrayList != null)
+		return arrayList;
+	}
+
+	ArrayList<PublicKeyElement> arrayList = new ArrayList<> ();
+	Cursor cursor = null;
+	boolean complete = true;
+	long generation = m_publicKeysGeneration.get();
+
+	try
+	{
+	    cursor = m_db.rawQuery
+		("SELECT signature_public_key, siphash_id_digest " +
+		 "FROM participants WHERE " + column + " = ?",
+		 new String[] {Base64.encodeToString(digest, Base64.DEFAULT)});
+
+	    if(cursor != null)
+		m_cursorsOpened.getAndIncrement();
+
+	    while(cursor != null && cursor.moveToNext())
+	    {
+		PublicKeyElement publicKeyElement = new PublicKeyElement();
+		byte bytes[] = cryptography.mtd
+		    (Base64.decode(cursor.getString(0).getBytes(),
+				   Base64.DEFAULT));
+
+		publicKeyElement.m_publicKey = publicKey(bytes);
+		publicKeyElement.m_sipHashIdDigest = cursor.getString(1);
+
+		if(publicKeyElement.m_publicKey == null)
+		    complete = false;
+
+		arrayList.add(publicKeyElement);
+	    }
+	}
+	catch(Exception exception)
+	{
+	    arrayList.clear();
+	    complete = false;
+	}
+	finally
+	{
+	    if(cursor != null)
+	    {
+		cursor.close();
+
+		if(cursor.isClosed())
+		    m_cursorsClosed.getAndIncrement();
+	    }
+	}
+
+	if(complete && !arrayList.isEmpty())
+	    synchronized(m_publicKeys)
+	    {
+		/*
+		** Discard the result if the participants were modified
+		** while it was being read.
+		*/
+
+		if(generation == m_publicKeysGeneration.get())
+		    m_publicKeys.put(key, arrayList);
+	    }
+
+	return arrayList;
+    }
+
+    private SparseArray<String> readFingerprints(String sql)
+    {
+	if(m_db == null)
+	    return null;
+
+	Cursor cursor = null;
+	SparseArray<String> sparseArray = null;
+
+	try
+	{
+	    cursor = m_db.rawQuery(sql, null);
 
-		/*
-		** Sort by name and Smoke identity.
-		*/
+	    if(cursor != null)
+		m_cursorsOpened.getAndIncrement();
 
-	    	int i = e1.m_name.compareTo(e2.m_name);
+	    sparseArray = new SparseArray<> ();
 
-		if(i != 0)
-		    return i;
+	    while(cursor != null && cursor.moveToNext())
+		sparseArray.put(cursor.getInt(0), cursor.getString(1));
+	}
+	catch(Exception exception)
+	{
+	    sparseArray = null;
+	}
+	finally
+	{
+	    if(cursor != null)
+	    {
+		cursor.close();
 
-		return e1.m_sipHashId.compareTo(e2.m_sipHashId);
+		if(cursor.isClosed())
+		    m_cursorsClosed.getAndIncrement();
 	    }
-	};
-    private final static ReentrantReadWriteLock s_congestionControlMutex =
-	new ReentrantReadWriteLock();
-    private final static String DATABASE_NAME = "smokestack.db";
-    private final static int DATABASE_VERSION = 1;
-    private final static int SIPHASH_STREAM_CREATION_ITERATION_COUNT = 4096;
-    private final static long ONE_WEEK = 604800000L;
-    private final static long WRITE_PARTICIPANT_TIME_DELTA =
-	60000L; // 60 Seconds
-    private static Database s_instance = null;
+	}
 
-    private Database(Context context)
+	return sparseArray;
+    }
+
+    private SparseIntArray readEchoQueueCounts()
     {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	SparseIntArray sparseArray = new SparseIntArray();
+
+	if(m_transientDb == null)
+	    return sparseArray;
+
+	Cursor cursor = null;
 
 	try
 	{
-	    m_db = getWritableDatabase();
+	    cursor = m_transientDb.rawQuery
+		("SELECT neighbor_oid, COUNT(*) FROM outbound_queue " +
+		 "WHERE echo_queue = 1 GROUP BY neighbor_oid", null);
+
+	    if(cursor != null)
+		m_cursorsOpened.getAndIncrement();
+
+	    while(cursor != null && cursor.moveToNext())
+		sparseArray.put(cursor.getInt(0), cursor.getInt(1));
 	}
 	catch(Exception exception)
 	{
-	    m_db = null;
+	    sparseArray.clear();
+	}
+	finally
+	{
+	    if(cursor != null)
+	    {
+		cursor.close();
+
+		if(cursor.isClosed())
+		    m_cursorsClosed.getAndIncrement();
+	    }
 	}
+
+	return sparseArray;
     }
 
     public boolean authenticate(Cryptography cryptography,
@@ -216,8 +826,6 @@ public class Database extends SQLiteOpenHelper
 	   stringBuffer.length() == 0)
 	    return false;
 
-	Cursor cursor = null;
-
 	try
 	{
 	    byte buffer[] = Base64.decode(data.getBytes(), Base64.NO_WRAP);
@@ -234,69 +842,25 @@ public class Database extends SQLiteOpenHelper
 	    byte signature[] = Arrays.copyOfRange(buffer, 128, buffer.length);
 	    byte signatureKeyDigest[] = Arrays.copyOfRange(buffer, 64, 128);
 
-	    cursor = m_db.rawQuery
-		("SELECT signature_public_key FROM participants " +
-		 "WHERE signature_public_key_digest = ?",
-		 new String[] {Base64.encodeToString(signatureKeyDigest,
-						     Base64.DEFAULT)});
-
-	    if(cursor != null)
-		m_cursorsOpened.getAndIncrement();
-
-	    while(cursor != null && cursor.moveToNext())
-	    {
-		PublicKey publicKey = null;
-		byte bytes[] = cryptography.mtd
-		    (Base64.decode(cursor.getString(0).getBytes(),
-				   Base64.DEFAULT));
-
-		if(bytes != null)
-		{
-		    int length = bytes.length;
-
-		    if(length < 200)
-			publicKey = KeyFactory.getInstance("EC").
-			    generatePublic(new X509EncodedKeySpec(bytes));
-		    else if(length < 600)
-			publicKey = KeyFactory.getInstance("RSA").
-			    generatePublic(new X509EncodedKeySpec(bytes));
-		    else if(length < 1200)
-			publicKey = KeyFactory.getInstance
-			    ("SPHINCS256",
-			     BouncyCastlePQCProvider.PROVIDER_NAME).
-			    generatePublic(new X509EncodedKeySpec(bytes));
-		    else
-			publicKey = KeyFactory.getInstance
-			    ("Rainbow", BouncyCastlePQCProvider.PROVIDER_NAME).
-			    generatePublic(new X509EncodedKeySpec(bytes));
-		}
-
-		if(publicKey != null)
-		{
-		    buffer = Miscellaneous.joinByteArrays
-			(random,
-			 signatureKeyDigest,
-			 stringBuffer.toString().getBytes());
+	    buffer = Miscellaneous.joinByteArrays
+		(random,
+		 signatureKeyDigest,
+		 stringBuffer.toString().getBytes());
 
+	    for(PublicKeyElement publicKeyElement :
+		    readPublicKeys(cryptography,
+				   "signature_public_key_digest",
+				   signatureKeyDigest))
+		if(publicKeyElement.m_publicKey != null)
 		    if(Cryptography.
-		       verifySignature(publicKey, signature, buffer))
+		       verifySignature(publicKeyElement.m_publicKey,
+				       signature,
+				       buffer))
 			return true;
-		}
-	    }
 	}
 	catch(Exception exception)
 	{
 	}
-	finally
-	{
-	    if(cursor != null)
-	    {
-		cursor.close();
-
-		if(cursor.isClosed())
-		    m_cursorsClosed.getAndIncrement();
-	    }
-	}
 
 	return false;
     }
@@ -336,6 +900,7 @@ public class Database extends SQLiteOpenHelper
 	    return false;
 	}
 
+	tableChanged("listeners");
 	return true;
     }
 
@@ -410,104 +975,6 @@ public class Database extends SQLiteOpenHelper
 	return true;
     }
 
-    private void updateRoutingIdentityTimestamp(String clientIdentity,
-						String identity)
-    {
-	if(m_db == null)
-	    return;
-
-	Cursor cursor = null;
-
-	m_db.beginTransactionNonExclusive();
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("UPDATE routing_identities SET " +
-		 "timestamp = CURRENT_TIMESTAMP " +
-		 "WHERE client_identity = ? AND identity = ?",
-		 new String[] {clientIdentity, identity});
-
-	    if(cursor != null)
-		m_cursorsOpened.getAndIncrement();
-
-	    m_db.setTransactionSuccessful();
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    if(cursor != null)
-	    {
-		cursor.close();
-
-		if(cursor.isClosed())
-		    m_cursorsClosed.getAndIncrement();
-	    }
-
-	    m_db.endTransaction();
-	}
-    }
-
-    public ArrayList<byte[]> readIdentities(int limit)
-    {
-	if(m_db == null)
-	    return null;
-
-	Cursor cursor = null;
-	ArrayList<byte[]> arrayList = null;
-
-	try
-	{
-	    if(limit > 0)
-		cursor = m_db.rawQuery
-		    ("SELECT DISTINCT(identity) FROM routing_identities " +
-		     "ORDER BY timestamp DESC LIMIT ?",
-		     new String[] {String.valueOf(limit)});
-	    else
-		cursor = m_db.rawQuery
-		    ("SELECT DISTINCT(identity) FROM routing_identities " +
-		     "ORDER BY timestamp DESC", null);
-
-	    if(cursor != null)
-		m_cursorsOpened.getAndIncrement();
-
-	    arrayList = new ArrayList<> ();
-
-	    while(cursor != null && cursor.moveToNext())
-	    {
-		byte bytes[] = Base64.decode
-		    (cursor.getString(0).getBytes(), Base64.DEFAULT);
-
-		if(bytes != null)
-		    arrayList.add(bytes);
-	    }
-
-	    if(arrayList.isEmpty())
-		arrayList = null;
-	}
-	catch(Exception exception)
-	{
-	    if(arrayList != null)
-		arrayList.clear();
-
-	    arrayList = null;
-	}
-	finally
-	{
-	    if(cursor != null)
-	    {
-		cursor.close();
-
-		if(cursor.isClosed())
-		    m_cursorsClosed.getAndIncrement();
-	    }
-	}
-
-	return arrayList;
-    }
-
     public ArrayList<ListenerElement> readListeners
 	(Cryptography cryptography, int listenerOid)
     {
@@ -827,6 +1294,7 @@ public class Database extends SQLiteOpenHelper
 
 	Cursor cursor = null;
 	ArrayList<NeighborElement> arrayList = null;
+	SparseIntArray echoQueueCounts = readEchoQueueCounts();
 
 	try
 	{
@@ -834,8 +1302,7 @@ public class Database extends SQLiteOpenHelper
 		("SELECT " +
 		 "(SELECT COUNT(*) FROM outbound_queue o WHERE " +
 		 "o.echo_queue = 0 AND o.neighbor_oid = n.OID), " +
-		 "(SELECT COUNT(*) FROM outbound_queue o WHERE " +
-		 "o.echo_queue = 1 AND o.neighbor_oid = n.OID), " +
+		 "0, " +
 		 "n.bytes_buffered, " +
 		 "n.bytes_read, " +
 		 "n.bytes_written, " +
@@ -904,7 +1371,7 @@ public class Database extends SQLiteOpenHelper
 			break;
 		    case 1:
 			neighborElement.m_outboundEchoQueued =
-			    cursor.getLong(i);
+			    echoQueueCounts.get(oid);
 			break;
 		    case 2:
 			if(bytes != null)
@@ -1104,7 +1571,8 @@ public class Database extends SQLiteOpenHelper
 	return arrayList;
     }
 
-    public ArrayList<OzoneElement> readOzones(Cryptography cryptography)
+    public ArrayList<OzoneElement> readOzones
+	(Cryptography cryptography, int ozoneOid)
     {
 	if(cryptography == null || m_db == null)
 	    return null;
@@ -1114,12 +1582,21 @@ public class Database extends SQLiteOpenHelper
 
 	try
 	{
-	    cursor = m_db.rawQuery
-		("SELECT " +
-		 "ozone_address, " +
-		 "ozone_address_stream, " +
-		 "OID " +
-		 "FROM ozones", null);
+	    if(ozoneOid == -1)
+		cursor = m_db.rawQuery
+		    ("SELECT " +
+		     "ozone_address, " +
+		     "ozone_address_stream, " +
+		     "OID " +
+		     "FROM ozones", null);
+	    else
+		cursor = m_db.rawQuery
+		    ("SELECT " +
+		     "ozone_address, " +
+		     "ozone_address_stream, " +
+		     "OID " +
+		     "FROM ozones WHERE OID = ?",
+		     new String[] {String.valueOf(ozoneOid)});
 
 	    if(cursor != null)
 		m_cursorsOpened.getAndIncrement();
@@ -1203,7 +1680,8 @@ public class Database extends SQLiteOpenHelper
 	return arrayList;
     }
 
-    public ArrayList<SipHashIdElement> readSipHashIds(Cryptography cryptography)
+    public ArrayList<SipHashIdElement> readSipHashIds
+	(Cryptography cryptography, int sipHashIdOid)
     {
 	if(cryptography == null || m_db == null)
 	    return null;
@@ -1221,19 +1699,23 @@ public class Database extends SQLiteOpenHelper
 		 "WHERE p.siphash_id_digest = si.siphash_id_digest) AS b, " +
 		 "(SELECT COUNT(p.OID) FROM public_key_pairs p " +
 		 "WHERE p.siphash_id_digest = si.siphash_id_digest) AS c, " +
-		 "(SELECT COUNT(s.OID) FROM stack s WHERE " +
-		 "s.siphash_id_digest = si.siphash_id_digest AND " +
-		 "s.timestamp IS NULL) AS d, " +
-		 "(SELECT COUNT(s.OID) FROM stack s WHERE " +
-		 "s.siphash_id_digest = si.siphash_id_digest AND " +
-		 "s.timestamp IS NOT NULL) AS e, " +
+		 "IFNULL((SELECT m.in_messages FROM message_totals m " +
+		 "WHERE m.siphash_id_digest = si.siphash_id_digest), 0) " +
+		 "AS d, " +
+		 "IFNULL((SELECT m.out_messages FROM message_totals m " +
+		 "WHERE m.siphash_id_digest = si.siphash_id_digest), 0) " +
+		 "AS e, " +
 		 "si.accept_without_signatures, " +
 		 "si.name, " +
 		 "si.siphash_id, " +
 		 "si.stream, " +
 		 "si.timestamp, " +
 		 "si.OID " +
-		 "FROM siphash_ids si ORDER BY si.OID", null);
+		 "FROM siphash_ids si " +
+		 (sipHashIdOid == -1 ? "" : "WHERE si.OID = ? ") +
+		 "ORDER BY si.OID",
+		 sipHashIdOid == -1 ?
+		 null : new String[] {String.valueOf(sipHashIdOid)});
 
 	    if(cursor != null)
 		m_cursorsOpened.getAndIncrement();
@@ -1469,55 +1951,35 @@ public class Database extends SQLiteOpenHelper
 	return arrayList;
     }
 
-    public MessageTotals readMessageTotals(String oid)
+    public MessageEnvelope echoEnvelope(String digest)
     {
-	if(m_db == null)
+	if(digest == null)
 	    return null;
 
-	Cursor cursor = null;
-	MessageTotals messageTotals = null;
-
-	try
+	synchronized(m_echoEnvelopes)
 	{
-	    cursor = m_db.rawQuery
-		("SELECT (SELECT COUNT(s.OID) FROM stack s WHERE " +
-		 "s.siphash_id_digest = si.siphash_id_digest AND " +
-		 "s.timestamp IS NULL) AS a, " +
-		 "(SELECT COUNT(s.OID) FROM stack s WHERE " +
-		 "s.siphash_id_digest = si.siphash_id_digest AND " +
-		 "s.timestamp IS NOT NULL) AS b, " +
-		 "si.OID " +
-		 "FROM siphash_ids si WHERE si.OID = ? ORDER BY si.OID",
-		 new String[] {oid});
+	    return m_echoEnvelopes.get(digest);
+	}
+    }
 
-	    if(cursor != null)
-		m_cursorsOpened.getAndIncrement();
+    public MessageTotals readMessageTotals(String oid)
+    {
+	HashMap<String, MessageTotals> messageTotals = messageTotals();
 
-	    if(cursor != null && cursor.moveToFirst())
-	    {
-		messageTotals = new MessageTotals();
-		messageTotals.m_inMessages = cursor.getLong(0);
-		messageTotals.m_outMessages = cursor.getLong(1);
-		messageTotals.m_totalMessages = messageTotals.m_inMessages +
-		    messageTotals.m_outMessages;
-	    }
-	}
-	catch(Exception exception)
-	{
-	    messageTotals = null;
-	}
-	finally
-	{
-	    if(cursor != null)
-	    {
-		cursor.close();
+	if(messageTotals == null)
+	    return null;
 
-		if(cursor.isClosed())
-		    m_cursorsClosed.getAndIncrement();
-	    }
-	}
+	MessageTotals totals = messageTotals.get(oid);
 
-	return messageTotals;
+	if(totals == null)
+	    return null;
+
+	MessageTotals copy = new MessageTotals();
+
+	copy.m_inMessages = totals.m_inMessages;
+	copy.m_outMessages = totals.m_outMessages;
+	copy.m_totalMessages = totals.m_totalMessages;
+	return copy;
     }
 
     public PublicKey signatureKeyForDigest(Cryptography cryptography,
@@ -1529,64 +1991,41 @@ public class Database extends SQLiteOpenHelper
 	   m_db == null)
 	    return null;
 
-	Cursor cursor = null;
-	PublicKey publicKey = null;
-
-	try
-	{
-	    cursor = m_db.rawQuery
-		("SELECT " +
-		 "signature_public_key " +
-		 "FROM participants WHERE encryption_public_key_digest = ?",
-		 new String[] {Base64.encodeToString(digest, Base64.DEFAULT)});
+	ArrayList<PublicKeyElement> arrayList = readPublicKeys
+	    (cryptography, "encryption_public_key_digest", digest);
 
-	    if(cursor != null)
-		m_cursorsOpened.getAndIncrement();
+	if(arrayList.isEmpty())
+	    return null;
 
-	    if(cursor != null && cursor.moveToFirst())
-	    {
-		byte bytes[] = cryptography.mtd
-		    (Base64.decode(cursor.getString(0).getBytes(),
-				   Base64.DEFAULT));
+	return arrayList.get(0).m_publicKey;
+    }
 
-		if(bytes != null)
-		{
-		    int length = bytes.length;
-
-		    if(length < 200)
-			publicKey = KeyFactory.getInstance("EC").
-			    generatePublic(new X509EncodedKeySpec(bytes));
-		    else if(length < 600)
-			publicKey = KeyFactory.getInstance("RSA").
-			    generatePublic(new X509EncodedKeySpec(bytes));
-		    else if(length < 1200)
-			publicKey = KeyFactory.getInstance
-			    ("SPHINCS256",
-			     BouncyCastlePQCProvider.PROVIDER_NAME).
-			    generatePublic(new X509EncodedKeySpec(bytes));
-		    else
-			publicKey = KeyFactory.getInstance
-			    ("Rainbow", BouncyCastlePQCProvider.PROVIDER_NAME).
-			    generatePublic(new X509EncodedKeySpec(bytes));
-		}
-	    }
-	}
-	catch(Exception exception)
-	{
-	    publicKey = null;
-	}
-	finally
-	{
-	    if(cursor != null)
-	    {
-		cursor.close();
+    public SparseArray<String> readOzoneFingerprints()
+    {
+	/*
+	** The stored streams are compared without being decrypted.
+	** A rewritten ozone has a new fingerprint.
+	*/
 
-		if(cursor.isClosed())
-		    m_cursorsClosed.getAndIncrement();
-	    }
-	}
+	return readFingerprints
+	    ("SELECT OID, ozone_address_stream FROM ozones");
+    }
+
+    public SparseArray<String> readSipHashIdFingerprints()
+    {
+	/*
+	** Only the values which the kernel requires are included.
+	** Message totals and timestamps are excluded.
+	*/
 
-	return publicKey;
+	return readFingerprints
+	    ("SELECT si.OID, " +
+	     "si.accept_without_signatures || ',' || " +
+	     "si.name || ',' || " +
+	     "si.stream || ',' || " +
+	     "(SELECT EXISTS(SELECT 1 FROM participants p " +
+	     "WHERE p.siphash_id_digest = si.siphash_id_digest)) " +
+	     "FROM siphash_ids si");
     }
 
     public SparseIntArray readNeighborOids()
@@ -1638,6 +2077,50 @@ public class Database extends SQLiteOpenHelper
 	return sparseArray;
     }
 
+    public SparseIntArray readOutboundQueueCounts()
+    {
+	/*
+	** The number of messages which are queued for each of
+	** the neighbors.
+	*/
+
+	SparseIntArray sparseArray = new SparseIntArray();
+
+	if(m_db == null)
+	    return sparseArray;
+
+	Cursor cursor = null;
+
+	try
+	{
+	    cursor = m_db.rawQuery
+		("SELECT neighbor_oid, COUNT(*) FROM outbound_queue " +
+		 "WHERE echo_queue = 0 GROUP BY neighbor_oid", null);
+
+	    if(cursor != null)
+		m_cursorsOpened.getAndIncrement();
+
+	    while(cursor != null && cursor.moveToNext())
+		sparseArray.put(cursor.getInt(0), cursor.getInt(1));
+	}
+	catch(Exception exception)
+	{
+	    sparseArray.clear();
+	}
+	finally
+	{
+	    if(cursor != null)
+	    {
+		cursor.close();
+
+		if(cursor.isClosed())
+		    m_cursorsClosed.getAndIncrement();
+	    }
+	}
+
+	return sparseArray;
+    }
+
     public String nameFromSipHashId(Cryptography cryptography, String sipHashId)
     {
 	if(cryptography == null || m_db == null)
@@ -1807,38 +2290,54 @@ public class Database extends SQLiteOpenHelper
 	   m_db == null)
 	    return "";
 
-	Cursor cursor = null;
-	String sipHashIdDigest = "";
+	ArrayList<PublicKeyElement> arrayList = readPublicKeys
+	    (cryptography, "encryption_public_key_digest", digest);
+
+	if(arrayList.isEmpty())
+	    return "";
+
+	return arrayList.get(0).m_sipHashIdDigest;
+    }
+
+    public String[] readEchoMessage(int oid)
+    {
+	if(m_transientDb == null)
+	    return null;
+
+	String array[] = null;
 
 	try
 	{
-	    cursor = m_db.rawQuery
-		("SELECT siphash_id_digest " +
-		 "FROM participants WHERE encryption_public_key_digest = ?",
-		 new String[] {Base64.encodeToString(digest, Base64.DEFAULT)});
+	    /*
+	    ** The statement yields OID,message_digest or an empty string.
+	    */
 
-	    if(cursor != null)
-		m_cursorsOpened.getAndIncrement();
+	    SQLiteStatement statement = statement
+		(m_transientDb, READ_ECHO_MESSAGE_SQL);
+	    String string = null;
 
-	    if(cursor != null && cursor.moveToFirst())
-		sipHashIdDigest = cursor.getString(0);
-	}
-	catch(Exception exception)
-	{
-	    sipHashIdDigest = "";
-	}
-	finally
-	{
-	    if(cursor != null)
+	    synchronized(statement)
 	    {
-		cursor.close();
+		statement.bindLong(1, oid);
+		string = statement.simpleQueryForString();
+		statement.clearBindings();
+	    }
 
-		if(cursor.isClosed())
-		    m_cursorsClosed.getAndIncrement();
+	    int indexOf = string == null ? -1 : string.indexOf(',');
+
+	    if(indexOf > 0)
+	    {
+		array = new String[2];
+		array[0] = string.substring(indexOf + 1);
+		array[1] = string.substring(0, indexOf);
 	    }
 	}
+	catch(Exception exception)
+	{
+	    array = null;
+	}
 
-	return sipHashIdDigest;
+	return array;
     }
 
     public String[] readOutboundMessage(boolean echo, int oid)
@@ -1846,41 +2345,39 @@ public class Database extends SQLiteOpenHelper
 	if(m_db == null)
 	    return null;
 
-	Cursor cursor = null;
 	String array[] = null;
 
 	try
 	{
-	    cursor = m_db.rawQuery
-		("SELECT message, OID FROM outbound_queue WHERE " +
-		 "echo_queue = ? AND neighbor_oid = ? ORDER BY OID LIMIT 1",
-		 new String[] {String.valueOf(echo ? 1 : 0),
-			       String.valueOf(oid)});
+	    /*
+	    ** The statement yields OID,message or an empty string.
+	    */
 
-	    if(cursor != null)
-		m_cursorsOpened.getAndIncrement();
+	    SQLiteStatement statement = statement
+		(echo ? m_transientDb : m_db, READ_OUTBOUND_MESSAGE_SQL);
+	    String string = null;
 
-	    if(cursor != null && cursor.moveToFirst())
+	    synchronized(statement)
+	    {
+		bindBoolean(statement, 1, echo);
+		statement.bindLong(2, oid);
+		string = statement.simpleQueryForString();
+		statement.clearBindings();
+	    }
+
+	    int indexOf = string == null ? -1 : string.indexOf(',');
+
+	    if(indexOf > 0)
 	    {
 		array = new String[2];
-		array[0] = cursor.getString(0);
-		array[1] = String.valueOf(cursor.getInt(1));
+		array[0] = string.substring(indexOf + 1);
+		array[1] = string.substring(0, indexOf);
 	    }
 	}
 	catch(Exception exception)
 	{
 	    array = null;
 	}
-	finally
-	{
-	    if(cursor != null)
-	    {
-		cursor.close();
-
-		if(cursor.isClosed())
-		    m_cursorsClosed.getAndIncrement();
-	    }
-	}
 
 	return array;
     }
@@ -1989,38 +2486,24 @@ public class Database extends SQLiteOpenHelper
 
 	try
 	{
-	    Cursor cursor = null;
+	    SQLiteStatement statement = statement
+		(m_transientDb, CONTAINS_CONGESTION_DIGEST_SQL);
 
-	    try
-	    {
-		cursor = m_db.rawQuery
-		    ("SELECT EXISTS(SELECT 1 FROM " +
-		     "congestion_control WHERE digest = ?)",
-		     new String[] {Base64.
-				   encodeToString(Miscellaneous.
-						  longToByteArray(value),
-						  Base64.DEFAULT)});
-
-		if(cursor != null)
-		    m_cursorsOpened.getAndIncrement();
-
-		if(cursor != null && cursor.moveToFirst())
-		    contains = cursor.getInt(0) == 1;
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	    finally
+	    synchronized(statement)
 	    {
-		if(cursor != null)
-		{
-		    cursor.close();
-
-		    if(cursor.isClosed())
-			m_cursorsClosed.getAndIncrement();
-		}
+		bindString
+		    (statement,
+		     1,
+		     Base64.encodeToString(Miscellaneous.longToByteArray(value),
+					   Base64.DEFAULT));
+		contains = statement.simpleQueryForLong() == 1L;
+		statement.clearBindings();
 	    }
 	}
+	catch(Exception exception)
+	{
+	    contains = false;
+	}
 	finally
 	{
 	    s_congestionControlMutex.readLock().unlock();
@@ -2029,101 +2512,77 @@ public class Database extends SQLiteOpenHelper
 	return contains;
     }
 
-    public boolean containsRoutingIdentity(String clientIdentity,
-					   String message)
+    public boolean deleteEchoMessage(String oid, String digest)
     {
-	if(clientIdentity == null ||
-	   clientIdentity.length() == 0 ||
-	   m_db == null ||
-	   message == null ||
-	   message.trim().isEmpty())
+	if(m_transientDb == null || digest == null)
 	    return false;
 
-	Cursor cursor = null;
-
-	try
+	synchronized(m_echoEnvelopes)
 	{
-	    String strings[] = Messages.stripMessage(message).split("\\n");
-	    byte array1[] = null;
-	    byte array2[] = null;
+	    boolean ok = deleteOutboundMessage(oid, true);
 
-	    if(strings != null && strings.length == 3) // Buzz, Fire
-	    {
-		array1 = Miscellaneous.joinByteArrays
-		    (Base64.decode(strings[0], Base64.NO_WRAP),
-		     Base64.decode(strings[1], Base64.NO_WRAP));
-		array2 = Base64.decode(strings[2], Base64.NO_WRAP);
-	    }
-	    else
-	    {
-		byte data[] = Base64.decode
-		    (Messages.stripMessage(message), Base64.DEFAULT);
+	    releaseEchoEnvelope(digest);
+	    return ok;
+	}
+    }
 
-		array1 = Arrays.copyOfRange(data, 0, data.length - 64);
-		array2 = Arrays.copyOfRange
-		    (data, data.length - 64, data.length);
-	    }
+    public boolean deleteEntry(String oid, String table)
+    {
+	if(m_db == null || oid == null || table == null)
+	    return false;
 
-	    cursor = m_db.rawQuery
-		("SELECT identity FROM routing_identities WHERE " +
-		 "client_identity = ?", new String[] {clientIdentity});
+	boolean ok = false;
 
-	    if(cursor != null)
-		m_cursorsOpened.getAndIncrement();
+	try
+	{
+	    SQLiteStatement statement = statement
+		(m_db, "DELETE FROM " + table + " WHERE OID = ?");
 
-	    while(cursor != null && cursor.moveToNext())
+	    synchronized(statement)
 	    {
-		byte bytes[] = Base64.decode
-		    (cursor.getString(0), Base64.DEFAULT);
-
-		if(Cryptography.
-		   memcmp(Cryptography.hmac(array1, bytes), array2))
-		{
-		    updateRoutingIdentityTimestamp
-			(clientIdentity, cursor.getString(0));
-		    return true;
-		}
+		bindString(statement, 1, oid);
+		ok = statement.executeUpdateDelete() > 0;
+		statement.clearBindings();
 	    }
+
+	    if(table.equals("neighbors"))
+		m_remoteCertificates.remove(Integer.parseInt(oid));
 	}
 	catch(Exception exception)
 	{
-	}
-	finally
-	{
-	    if(cursor != null)
-	    {
-		cursor.close();
-
-		if(cursor.isClosed())
-		    m_cursorsClosed.getAndIncrement();
-	    }
+	    ok = false;
 	}
 
-	return false;
+	tableChanged(table);
+	messageTotalsChanged();
+	publicKeysChanged();
+	return ok;
     }
 
-    public boolean deleteEntry(String oid, String table)
+    public boolean deleteOutboundMessage(String oid, boolean echo)
     {
-	if(m_db == null)
+	if(m_db == null || oid == null)
 	    return false;
 
 	boolean ok = false;
 
-	m_db.beginTransactionNonExclusive();
-
 	try
 	{
-	    ok = m_db.delete(table, "OID = ?", new String[] {oid}) > 0;
-	    m_db.setTransactionSuccessful();
+	    SQLiteStatement statement = statement
+		(echo ? m_transientDb : m_db,
+		 "DELETE FROM outbound_queue WHERE OID = ?");
+
+	    synchronized(statement)
+	    {
+		bindString(statement, 1, oid);
+		ok = statement.executeUpdateDelete() > 0;
+		statement.clearBindings();
+	    }
 	}
 	catch(Exception exception)
 	{
 	    ok = false;
 	}
-	finally
-	{
-	    m_db.endTransaction();
-	}
 
 	return ok;
     }
@@ -2193,9 +2652,20 @@ public class Database extends SQLiteOpenHelper
 	    m_db.endTransaction();
 	}
 
+	messageTotalsChanged();
+	publicKeysChanged();
 	return ok;
     }
 
+    public boolean enqueueOutboundMessage(Cryptography cryptography,
+					  MessageEnvelope message,
+					  boolean echo,
+					  int oid)
+    {
+	return enqueueOutboundMessage
+	    (cryptography, message, echo, new int[] {oid}) > 0;
+    }
+
     public boolean removeMessages()
     {
 	if(m_db == null)
@@ -2219,6 +2689,7 @@ public class Database extends SQLiteOpenHelper
 	    m_db.endTransaction();
 	}
 
+	messageTotalsChanged();
 	return ok;
     }
 
@@ -2249,6 +2720,7 @@ public class Database extends SQLiteOpenHelper
 	    m_db.endTransaction();
 	}
 
+	messageTotalsChanged();
 	return ok;
     }
 
@@ -2289,6 +2761,7 @@ public class Database extends SQLiteOpenHelper
 	    m_db.endTransaction();
 	}
 
+	messageTotalsChanged();
 	return ok;
     }
 
@@ -2446,6 +2919,7 @@ public class Database extends SQLiteOpenHelper
 	    m_db.endTransaction();
 	}
 
+	tableChanged("listeners");
 	return ok;
     }
 
@@ -2650,6 +3124,7 @@ public class Database extends SQLiteOpenHelper
 	    m_db.endTransaction();
 	}
 
+	tableChanged("neighbors");
 	return ok;
     }
 
@@ -3056,6 +3531,7 @@ public class Database extends SQLiteOpenHelper
 	    m_db.endTransaction();
 	}
 
+	publicKeysChanged();
 	return true;
     }
 
@@ -3252,6 +3728,8 @@ public class Database extends SQLiteOpenHelper
 	    m_db.endTransaction();
 	}
 
+	messageTotalsChanged();
+	publicKeysChanged();
 	return ok;
     }
 
@@ -3261,8 +3739,17 @@ public class Database extends SQLiteOpenHelper
 	if(cryptography == null || m_db == null)
 	    return null;
 
+	/*
+	** Pinned certificates are cached. All changes are recorded
+	** through neighborRecordCertificate().
+	*/
+
+	byte bytes[] = m_remoteCertificates.get(oid);
+
+	if(bytes != null)
+	    return Arrays.copyOf(bytes, bytes.length);
+
 	Cursor cursor = null;
-	byte bytes[] = null;
 
 	try
 	{
@@ -3277,6 +3764,10 @@ public class Database extends SQLiteOpenHelper
 		bytes = cryptography.mtd
 		    (Base64.decode(cursor.getString(0).getBytes(),
 				   Base64.DEFAULT));
+
+	    if(bytes != null)
+		m_remoteCertificates.put
+		    (oid, Arrays.copyOf(bytes, bytes.length));
 	}
 	catch(Exception exception)
 	{
@@ -3296,11 +3787,154 @@ public class Database extends SQLiteOpenHelper
 	return bytes;
     }
 
+    public int countOutboundQueue(boolean echo, int oid)
+    {
+	if(m_db == null)
+	    return 0;
+
+	int count = 0;
+
+	try
+	{
+	    SQLiteStatement statement = statement
+		(echo ? m_transientDb : m_db, COUNT_OUTBOUND_QUEUE_SQL);
+
+	    synchronized(statement)
+	    {
+		bindBoolean(statement, 1, echo);
+		statement.bindLong(2, oid);
+		count = (int) statement.simpleQueryForLong();
+		statement.clearBindings();
+	    }
+	}
+	catch(Exception exception)
+	{
+	    count = 0;
+	}
+
+	if(echo && count > 0)
+	    sweepEchoEnvelopes();
+
+	return count;
+    }
+
+    public int enqueueOutboundMessage(Cryptography cryptography,
+				      MessageEnvelope message,
+				      boolean echo,
+				      int oids[])
+    {
+	return enqueueOutboundMessage(cryptography, message, echo, oids, null);
+    }
+
+    public int enqueueOutboundMessage(Cryptography cryptography,
+				      MessageEnvelope message,
+				      boolean echo,
+				      int oids[],
+				      boolean enqueued[])
+    {
+	/*
+	** If provided, enqueued[i] is set if the message was
+	** enqueued for oids[i].
+	*/
+
+	if(cryptography == null ||
+	   message == null ||
+	   message.isEmpty() ||
+	   m_db == null ||
+	   oids == null ||
+	   oids.length == 0 ||
+	   (enqueued != null && enqueued.length < oids.length))
+	    return 0;
+
+	/*
+	** The digest is computed once for all of the neighbors.
+	*/
+
+	String digest = message.outboundDigest(cryptography);
+
+	if(digest == null)
+	    return 0;
+
+	if(!echo)
+	    return insertOutboundMessages
+		(m_db, message.message(), digest, false, oids, enqueued);
+
+	int count = 0;
+
+	synchronized(m_echoEnvelopes)
+	{
+	    /*
+	    ** Echo rows refer to an envelope which is shared by all
+	    ** of the neighbors instead of holding copies of the message.
+	    */
+
+	    if(!m_echoEnvelopes.containsKey(digest))
+		m_echoEnvelopes.put(digest, message);
+
+	    count = insertOutboundMessages
+		(m_transientDb, "", digest, true, oids, enqueued);
+
+	    if(count == 0)
+		releaseEchoEnvelope(digest);
+	}
+
+	return count;
+    }
+
+    public int trimOutboundQueue(boolean echo, int oid, int maximumCount)
+    {
+	/*
+	** Remove the oldest messages of the queue so that at most
+	** maximumCount messages remain.
+	*/
+
+	if(m_db == null)
+	    return 0;
+
+	int count = 0;
+
+	try
+	{
+	    SQLiteStatement statement = statement
+		(echo ? m_transientDb : m_db, TRIM_OUTBOUND_QUEUE_SQL);
+
+	    synchronized(statement)
+	    {
+		bindBoolean(statement, 1, echo);
+		statement.bindLong(2, oid);
+		statement.bindLong(3, Math.max(0, maximumCount));
+		count = statement.executeUpdateDelete();
+		statement.clearBindings();
+	    }
+	}
+	catch(Exception exception)
+	{
+	    count = 0;
+	}
+
+	return count;
+    }
+
     public long count(String table)
     {
 	if(m_db == null)
 	    return -1L;
 
+	if(table.equals("stack"))
+	{
+	    HashMap<String, MessageTotals> messageTotals = messageTotals();
+
+	    if(messageTotals != null)
+	    {
+		long c = 0L;
+
+		for(MessageTotals totals : messageTotals.values())
+		    c += totals.m_totalMessages;
+
+		return c;
+	    }
+	}
+
 	Cursor cursor = null;
 	long c = 0L;
 
@@ -3346,6 +3980,13 @@ public class Database extends SQLiteOpenHelper
 	return m_cursorsOpened.get();
     }
 
+    public long tableChanges(String table)
+    {
+	AtomicLong changes = m_tableChanges.get(table);
+
+	return changes == null ? 0L : changes.get();
+    }
+
     public static synchronized Database getInstance()
     {
 	return s_instance; // Should never be null.
@@ -3400,6 +4041,8 @@ public class Database extends SQLiteOpenHelper
 
 	    m_db.endTransaction();
 	}
+
+	messageTotalsChanged();
     }
 
     public void cleanDanglingOutboundQueued()
@@ -3438,6 +4081,43 @@ public class Database extends SQLiteOpenHelper
 
 	    m_db.endTransaction();
 	}
+
+	if(m_transientDb == m_db)
+	{
+	    sweepEchoEnvelopes();
+	    return;
+	}
+
+	SparseIntArray sparseArray = readNeighborOids();
+	StringBuilder stringBuilder = new StringBuilder();
+
+	stringBuilder.append("-1");
+
+	for(int i = 0; sparseArray != null && i < sparseArray.size(); i++)
+	{
+	    stringBuilder.append(",");
+	    stringBuilder.append(sparseArray.valueAt(i));
+	}
+
+	m_transientDb.beginTransactionNonExclusive();
+
+	try
+	{
+	    m_transientDb.delete
+		("outbound_queue",
+		 "neighbor_oid NOT IN (" + stringBuilder.toString() + ")",
+		 null);
+	    m_transientDb.setTransactionSuccessful();
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_transientDb.endTransaction();
+	}
+
+	sweepEchoEnvelopes();
     }
 
     public void cleanDanglingParticipants()
@@ -3507,6 +4187,8 @@ public class Database extends SQLiteOpenHelper
 
 	    m_db.endTransaction();
 	}
+
+	publicKeysChanged();
     }
 
     public void cleanNeighborStatistics(Cryptography cryptography)
@@ -3553,72 +4235,56 @@ public class Database extends SQLiteOpenHelper
 	{
 	    m_db.endTransaction();
 	}
+
+	tableChanged(table);
     }
 
     public void deleteEchoQueue()
     {
-	if(m_db == null)
+	if(m_transientDb == null)
 	    return;
 
-	m_db.beginTransactionNonExclusive();
+	m_transientDb.beginTransactionNonExclusive();
 
 	try
 	{
-	    m_db.delete("outbound_queue", "echo_queue = 1", null);
-	    m_db.setTransactionSuccessful();
+	    m_transientDb.delete("outbound_queue", "echo_queue = 1", null);
+	    m_transientDb.setTransactionSuccessful();
 	}
 	catch(Exception exception)
 	{
 	}
 	finally
 	{
-	    m_db.endTransaction();
+	    m_transientDb.endTransaction();
 	}
+
+	sweepEchoEnvelopes();
     }
 
     public void deleteEchoQueue(int oid)
     {
-	if(m_db == null)
+	if(m_transientDb == null)
 	    return;
 
-	m_db.beginTransactionNonExclusive();
+	m_transientDb.beginTransactionNonExclusive();
 
 	try
 	{
-	    m_db.delete("outbound_queue",
-			"echo_queue = 1 AND neighbor_oid = ?",
-			new String[] {String.valueOf(oid)});
-	    m_db.setTransactionSuccessful();
+	    m_transientDb.delete("outbound_queue",
+				 "echo_queue = 1 AND neighbor_oid = ?",
+				 new String[] {String.valueOf(oid)});
+	    m_transientDb.setTransactionSuccessful();
 	}
 	catch(Exception exception)
 	{
 	}
 	finally
 	{
-	    m_db.endTransaction();
+	    m_transientDb.endTransaction();
 	}
-    }
-
-    public void deleteRoutingEntry(String clientIdentity)
-    {
-	if(m_db == null)
-	    return;
-
-	m_db.beginTransactionNonExclusive();
 
-	try
-	{
-	    m_db.delete("routing_identities", "client_identity = ?",
-			new String[] {clientIdentity});
-	    m_db.setTransactionSuccessful();
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_db.endTransaction();
-	}
+	sweepEchoEnvelopes();
     }
 
     public void deleteSetting(String name)
@@ -3642,42 +4308,6 @@ public class Database extends SQLiteOpenHelper
 	}
     }
 
-    public void enqueueOutboundMessage(Cryptography cryptography,
-				       String message,
-				       boolean echo,
-				       int oid)
-    {
-	if(cryptography == null ||
-	   message == null ||
-	   message.trim().isEmpty() ||
-	   m_db == null)
-	    return;
-
-	m_db.beginTransactionNonExclusive();
-
-	try
-	{
-	    ContentValues values = new ContentValues();
-
-	    values.put("echo_queue", echo ? 1 : 0);
-	    values.put("message", message);
-	    values.put
-		("message_digest",
-		 Base64.encodeToString(cryptography.hmac(message.getBytes()),
-				       Base64.DEFAULT));
-	    values.put("neighbor_oid", oid);
-	    m_db.insertOrThrow("outbound_queue", null, values);
-	    m_db.setTransactionSuccessful();
-	}
-	catch(Exception exception)
-        {
-	}
-	finally
-	{
-	    m_db.endTransaction();
-	}
-    }
-
     public void listenerNeighborControlStatus(Cryptography cryptography,
 					      String controlStatus,
 					      String oid,
@@ -3707,6 +4337,8 @@ public class Database extends SQLiteOpenHelper
 	{
 	    m_db.endTransaction();
 	}
+
+	tableChanged(table);
     }
 
     public void neighborRecordCertificate(Cryptography cryptography,
@@ -3735,14 +4367,24 @@ public class Database extends SQLiteOpenHelper
 
 	    m_db.update("neighbors", values, "OID = ?", new String[] {oid});
 	    m_db.setTransactionSuccessful();
+
+	    if(certificate == null)
+		m_remoteCertificates.put(Integer.parseInt(oid), new byte[0]);
+	    else
+		m_remoteCertificates.put
+		    (Integer.parseInt(oid),
+		     Arrays.copyOf(certificate, certificate.length));
 	}
 	catch(Exception exception)
 	{
+	    m_remoteCertificates.clear();
 	}
 	finally
 	{
 	    m_db.endTransaction();
 	}
+
+	tableChanged("neighbors");
     }
 
     @Override
@@ -3815,9 +4457,7 @@ public class Database extends SQLiteOpenHelper
 	** Create the congestion_control table.
 	*/
 
-	str = "CREATE TABLE IF NOT EXISTS congestion_control (" +
-	    "digest TEXT NOT NULL PRIMARY KEY, " +
-	    "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)";
+	str = CONGESTION_CONTROL_TABLE_SQL;
 
 	try
 	{
@@ -3921,12 +4561,7 @@ public class Database extends SQLiteOpenHelper
 	** Create the outbound_queue table.
 	*/
 
-	str = "CREATE TABLE IF NOT EXISTS outbound_queue (" +
-	    "echo_queue INTEGER NOT NULL DEFAULT 0, " +
-	    "message TEXT NOT NULL, " +
-	    "message_digest TEXT NOT NULL, " +
-	    "neighbor_oid INTEGER NOT NULL, " +
-	    "PRIMARY KEY (message_digest, neighbor_oid))";
+	str = OUTBOUND_QUEUE_TABLE_SQL;
 
 	try
 	{
@@ -4059,6 +4694,77 @@ public class Database extends SQLiteOpenHelper
 	catch(Exception exception)
 	{
 	}
+
+	/*
+	** Create the message_totals table. Unreleased (in) and
+	** released (out) messages are counted by triggers on the
+	** stack table within the writers' transactions.
+	*/
+
+	str = "CREATE TABLE IF NOT EXISTS message_totals (" +
+	    "in_messages INTEGER NOT NULL DEFAULT 0, " +
+	    "out_messages INTEGER NOT NULL DEFAULT 0, " +
+	    "siphash_id_digest TEXT NOT NULL PRIMARY KEY, " +
+	    "FOREIGN KEY (siphash_id_digest) REFERENCES " +
+	    "siphash_ids (siphash_id_digest) ON DELETE CASCADE)";
+
+	try
+	{
+	    db.execSQL(str);
+	}
+	catch(Exception exception)
+	{
+	}
+
+	String strings[] = new String[]
+	    {"CREATE TRIGGER IF NOT EXISTS stack_delete " +
+	     "AFTER DELETE ON stack BEGIN " +
+	     "UPDATE message_totals SET " +
+	     "in_messages = in_messages - (OLD.timestamp IS NULL), " +
+	     "out_messages = out_messages - (OLD.timestamp IS NOT NULL) " +
+	     "WHERE siphash_id_digest = OLD.siphash_id_digest; END",
+	     "CREATE TRIGGER IF NOT EXISTS stack_insert " +
+	     "AFTER INSERT ON stack BEGIN " +
+	     "INSERT OR IGNORE INTO message_totals (siphash_id_digest) " +
+	     "VALUES (NEW.siphash_id_digest); " +
+	     "UPDATE message_totals SET " +
+	     "in_messages = in_messages + (NEW.timestamp IS NULL), " +
+	     "out_messages = out_messages + (NEW.timestamp IS NOT NULL) " +
+	     "WHERE siphash_id_digest = NEW.siphash_id_digest; END",
+	     "CREATE TRIGGER IF NOT EXISTS stack_update " +
+	     "AFTER UPDATE OF siphash_id_digest, timestamp ON stack BEGIN " +
+	     "UPDATE message_totals SET " +
+	     "in_messages = in_messages - (OLD.timestamp IS NULL), " +
+	     "out_messages = out_messages - (OLD.timestamp IS NOT NULL) " +
+	     "WHERE siphash_id_digest = OLD.siphash_id_digest; " +
+	     "INSERT OR IGNORE INTO message_totals (siphash_id_digest) " +
+	     "VALUES (NEW.siphash_id_digest); " +
+	     "UPDATE message_totals SET " +
+	     "in_messages = in_messages + (NEW.timestamp IS NULL), " +
+	     "out_messages = out_messages + (NEW.timestamp IS NOT NULL) " +
+	     "WHERE siphash_id_digest = NEW.siphash_id_digest; END",
+
+	     /*
+	     ** Rebuild the totals of databases which predate the
+	     ** message_totals table or whose totals are inaccurate.
+	     */
+
+	     "DELETE FROM message_totals",
+	     "INSERT OR REPLACE INTO message_totals " +
+	     "(in_messages, out_messages, siphash_id_digest) " +
+	     "SELECT SUM(timestamp IS NULL), SUM(timestamp IS NOT NULL), " +
+	     "siphash_id_digest FROM stack WHERE siphash_id_digest IN " +
+	     "(SELECT siphash_id_digest FROM siphash_ids) " +
+	     "GROUP BY siphash_id_digest"};
+
+	for(String string : strings)
+	    try
+	    {
+		db.execSQL(string);
+	    }
+	    catch(Exception exception)
+	    {
+	    }
     }
 
     @Override
@@ -4075,10 +4781,10 @@ public class Database extends SQLiteOpenHelper
 
     public void purgeCongestion(int lifetime)
     {
-	if(m_db == null)
+	if(m_transientDb == null)
 	    return;
 
-	m_db.beginTransactionNonExclusive();
+	m_transientDb.beginTransactionNonExclusive();
 
 	try
 	{
@@ -4086,48 +4792,19 @@ public class Database extends SQLiteOpenHelper
 	    ** The bound string value must be cast to an integer.
 	    */
 
-	    m_db.delete
+	    m_transientDb.delete
 		("congestion_control",
 		 "ABS(STRFTIME('%s', 'now') - STRFTIME('%s', timestamp)) > " +
 		 "CAST(? AS INTEGER)",
 		 new String[] {String.valueOf(lifetime)});
-	    m_db.setTransactionSuccessful();
-	}
-	catch(Exception exception)
-	{
-	}
-	finally
-	{
-	    m_db.endTransaction();
-	}
-    }
-
-    public void purgeExpiredRoutingEntries(int lifetime)
-    {
-	if(m_db == null)
-	    return;
-
-	m_db.beginTransactionNonExclusive();
-
-	try
-	{
-	    /*
-	    ** The bound string value must be cast to an integer.
-	    */
-
-	    m_db.delete
-		("routing_identities",
-		 "ABS(STRFTIME('%s', 'now') - STRFTIME('%s', timestamp)) > " +
-		 "CAST(? AS INTEGER)",
-		 new String[] {String.valueOf(lifetime)});
-	    m_db.setTransactionSuccessful();
+	    m_transientDb.setTransactionSuccessful();
 	}
 	catch(Exception exception)
 	{
 	}
 	finally
 	{
-	    m_db.endTransaction();
+	    m_transientDb.endTransaction();
 	}
     }
 
@@ -4190,10 +4867,19 @@ public class Database extends SQLiteOpenHelper
 
 	    m_db.endTransaction();
 	}
+
+	messageTotalsChanged();
     }
 
     public void reset()
     {
+	m_remoteCertificates.clear();
+
+	synchronized(m_echoEnvelopes)
+	{
+	    m_echoEnvelopes.clear();
+	}
+
 	if(m_db == null)
 	    return;
 
@@ -4205,6 +4891,7 @@ public class Database extends SQLiteOpenHelper
 		{"congestion_control",
 		 "listeners",
 		 "log",
+		 "message_totals",
 		 "neighbors",
 		 "outbound_queue",
 		 "ozones",
@@ -4233,6 +4920,30 @@ public class Database extends SQLiteOpenHelper
 	{
 	    m_db.endTransaction();
 	}
+
+	messageTotalsChanged();
+	publicKeysChanged();
+	tableChanged("listeners");
+	tableChanged("neighbors");
+
+	if(m_transientDb == m_db)
+	    return;
+
+	m_transientDb.beginTransactionNonExclusive();
+
+	try
+	{
+	    m_transientDb.delete("congestion_control", null, null);
+	    m_transientDb.delete("outbound_queue", null, null);
+	    m_transientDb.setTransactionSuccessful();
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_transientDb.endTransaction();
+	}
     }
 
     public void resetAndDrop()
@@ -4242,10 +4953,13 @@ public class Database extends SQLiteOpenHelper
 	if(m_db == null)
 	    return;
 
+	closeStatements();
+
 	String strings[] = new String[]
 	    {"DROP TABLE IF EXISTS congestion_control",
 	     "DROP TABLE IF EXISTS listeners",
 	     "DROP TABLE IF EXISTS log",
+	     "DROP TABLE IF EXISTS message_totals",
 	     "DROP TABLE IF EXISTS neighbors",
 	     "DROP TABLE IF EXISTS outbound_queue",
 	     "DROP TABLE IF EXISTS ozones",
@@ -4496,6 +5210,8 @@ public class Database extends SQLiteOpenHelper
 	{
 	    m_db.endTransaction();
 	}
+
+	messageTotalsChanged();
     }
 
     public void updateSipHashIdTimestamp(byte digest[])
@@ -4537,118 +5253,26 @@ public class Database extends SQLiteOpenHelper
 
 	try
 	{
-	    m_db.beginTransactionNonExclusive();
-
-	    try
-	    {
-		ContentValues values = new ContentValues();
-
-		values.put
-		    ("digest",
-		     Base64.encodeToString(Miscellaneous.
-					   longToByteArray(value),
-					   Base64.DEFAULT));
-		m_db.replace("congestion_control", null, values);
-		m_db.setTransactionSuccessful();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	    finally
-	    {
-		m_db.endTransaction();
-	    }
-	}
-	finally
-	{
-	    s_congestionControlMutex.writeLock().unlock();
-	}
-    }
-
-    public void writeIdentities(UUID clientIdentity, byte bytes[])
-    {
-	if(bytes == null ||
-	   bytes.length == 0 ||
-	   clientIdentity == null ||
-	   m_db == null)
-	    return;
-
-	m_db.beginTransactionNonExclusive();
-
-	try
-	{
-	    ContentValues values = new ContentValues();
-	    SimpleDateFormat simpleDateFormat = new SimpleDateFormat
-		("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+	    SQLiteStatement statement = statement
+		(m_transientDb, WRITE_CONGESTION_DIGEST_SQL);
 
-	    simpleDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-
-	    int length = bytes.length;
-
-	    for(int i = 0; i < length; i += 64)
+	    synchronized(statement)
 	    {
-		values.clear();
-		values.put("algorithm", "sha-512");
-		values.put("client_identity", clientIdentity.toString());
-		values.put
-		    ("identity",
-		     Base64.encodeToString(Arrays.copyOfRange(bytes, i, i + 64),
+		bindString
+		    (statement,
+		     1,
+		     Base64.encodeToString(Miscellaneous.longToByteArray(value),
 					   Base64.DEFAULT));
-		values.put("timestamp", simpleDateFormat.format(new Date()));
-		m_db.replace("routing_identities", null, values);
+		statement.executeInsert();
+		statement.clearBindings();
 	    }
-
-	    m_db.setTransactionSuccessful();
 	}
 	catch(Exception exception)
-        {
-	}
-	finally
-	{
-	    m_db.endTransaction();
-	}
-    }
-
-    public void writeIdentity(UUID clientIdentity, String identity)
-    {
-	if(clientIdentity == null ||
-	   identity == null ||
-	   identity.length() == 0 ||
-	   m_db == null)
-	    return;
-
-	m_db.beginTransactionNonExclusive();
-
-	try
 	{
-	    ContentValues values = new ContentValues();
-	    SimpleDateFormat simpleDateFormat = new SimpleDateFormat
-		("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
-	    int index = identity.indexOf(";");
-
-	    /*
-	    ** The identity variable may contain preferred algorithms.
-	    */
-
-	    simpleDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-	    values.put("algorithm", "sha-512");
-	    values.put("client_identity", clientIdentity.toString());
-
-	    if(index > 0)
-		values.put("identity", identity.substring(0, index));
-	    else
-		values.put("identity", identity);
-
-	    values.put("timestamp", simpleDateFormat.format(new Date()));
-	    m_db.replace("routing_identities", null, values);
-	    m_db.setTransactionSuccessful();
-	}
-	catch(Exception exception)
-        {
 	}
 	finally
 	{
-	    m_db.endTransaction();
+	    s_congestionControlMutex.writeLock().unlock();
 	}
     }
 
@@ -4699,6 +5323,8 @@ public class Database extends SQLiteOpenHelper
 	{
 	    m_db.endTransaction();
 	}
+
+	tableChanged("listeners");
     }
 
     public void writeLog(String event)
@@ -4763,7 +5389,27 @@ public class Database extends SQLiteOpenHelper
 		("verified_digest",
 		 Base64.encodeToString(cryptography.hmac("false".getBytes()),
 				       Base64.DEFAULT));
-	    m_db.replace("stack", null, values);
+
+	    /*
+	    ** A REPLACE would not fire the delete trigger. An existing
+	    ** message is updated instead so that the message totals
+	    ** remain accurate.
+	    */
+
+	    if(m_db.insertWithOnConflict("stack",
+					 null,
+					 values,
+					 SQLiteDatabase.CONFLICT_IGNORE) == -1)
+	    {
+		values.putNull("timestamp");
+		m_db.update
+		    ("stack",
+		     values,
+		     "message_digest = ? AND siphash_id_digest = ?",
+		     new String[] {values.getAsString("message_digest"),
+				   values.getAsString("siphash_id_digest")});
+	    }
+
 	    m_db.setTransactionSuccessful();
 	}
 	catch(Exception exception)
@@ -4773,6 +5419,8 @@ public class Database extends SQLiteOpenHelper
 	{
 	    m_db.endTransaction();
 	}
+
+	messageTotalsChanged();
     }
 
     public void writeSetting(Cryptography cryptography,
@@ -0,0 +1,201 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+** Echoes are relayed in deficit round-robin order of their source
+** neighbors. Every active source receives QUANTUM bytes of relay
+** capacity per round. Rounds are served by several workers. A source
+** is served by one worker at a time so that its echoes retain
+** their order.
+*/
+
+public class EchoScheduler
+{
+    private static class Source
+    {
+	public ArrayDeque<MessageEnvelope> m_queue = null;
+	public Neighbor m_neighbor = null;
+	public long m_deficit = 0L;
+
+	public Source(Neighbor neighbor)
+	{
+	    m_neighbor = neighbor;
+	    m_queue = new ArrayDeque<> ();
+	}
+    }
+
+    private final ArrayDeque<Source> m_active = new ArrayDeque<> ();
+    private final HashMap<Neighbor, Source> m_sources = new HashMap<> ();
+    private final Object m_mutex = new Object();
+    private final static int MAXIMUM_QUEUED_PER_SOURCE = 256;
+    private final static int WORKERS = Math.max
+	(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private final ScheduledExecutorService m_scheduler =
+	Executors.newScheduledThreadPool(WORKERS);
+    private final static long QUANTUM = 64L * 1024L; // 64 KiB
+    private final static long WAIT_TIMEOUT = 10000L; // 10 Seconds
+    private static EchoScheduler s_instance = null;
+
+    private EchoScheduler()
+    {
+	for(int i = 0; i < WORKERS; i++)
+	    m_scheduler.scheduleAtFixedRate(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    try
+		    {
+			while(true)
+			    if(!round())
+				break;
+		    }
+		    catch(Exception exception)
+		    {
+		    }
+		}
+	    }, 0L, 25L, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean round()
+    {
+	ArrayList<MessageEnvelope> arrayList = new ArrayList<> ();
+	Source source = null;
+
+	synchronized(m_mutex)
+	{
+	    if(m_active.isEmpty())
+		try
+		{
+		    m_mutex.wait(WAIT_TIMEOUT);
+		}
+		catch(Exception exception)
+		{
+		}
+
+	    if((source = m_active.poll()) == null)
+		return false;
+
+	    source.m_deficit += QUANTUM;
+
+	    while(!source.m_queue.isEmpty() &&
+		  source.m_queue.peek().length() <= source.m_deficit)
+	    {
+		MessageEnvelope message = source.m_queue.poll();
+
+		arrayList.add(message);
+		source.m_deficit -= message.length();
+	    }
+	}
+
+	/*
+	** Fan out without holding m_mutex. The source is not active
+	** until its messages have been fanned out.
+	*/
+
+	try
+	{
+	    for(MessageEnvelope message : arrayList)
+		Kernel.getInstance().echo(message, source.m_neighbor.getOid());
+	}
+	finally
+	{
+	    synchronized(m_mutex)
+	    {
+		if(m_sources.get(source.m_neighbor) == source)
+		{
+		    if(source.m_queue.isEmpty())
+			m_sources.remove(source.m_neighbor);
+		    else
+		    {
+			m_active.add(source);
+			m_mutex.notify();
+		    }
+		}
+	    }
+	}
+
+	return true;
+    }
+
+    public static synchronized EchoScheduler getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new EchoScheduler();
+
+	return s_instance;
+    }
+
+    public boolean schedule(MessageEnvelope message, Neighbor neighbor)
+    {
+	if(message == null || message.isEmpty() || neighbor == null)
+	    return false;
+
+	synchronized(m_mutex)
+	{
+	    Source source = m_sources.get(neighbor);
+
+	    if(source == null)
+	    {
+		source = new Source(neighbor);
+		m_active.add(source);
+		m_sources.put(neighbor, source);
+	    }
+	    else if(source.m_queue.size() >= MAXIMUM_QUEUED_PER_SOURCE)
+		return false;
+
+	    source.m_queue.add(message);
+	    m_mutex.notify();
+	}
+
+	return true;
+    }
+
+    public void remove(Neighbor neighbor)
+    {
+	synchronized(m_mutex)
+	{
+	    Source source = m_sources.remove(neighbor);
+
+	    if(source != null)
+	    {
+		m_active.remove(source);
+		source.m_queue.clear();
+	    }
+	}
+    }
+}
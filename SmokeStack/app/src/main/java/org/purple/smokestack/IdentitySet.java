@@ -0,0 +1,142 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.purple.smokestack;
+
+import android.util.SparseArray;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+** An immutable, versioned set of identities which are keyed by
+** their OIDs. Each element is accompanied by a fingerprint of its
+** stored (encrypted) columns. Newer sets are derived from older sets
+** and only changed elements are loaded.
+*/
+
+public class IdentitySet<E>
+{
+    public interface Loader<E>
+    {
+	E load(int oid);
+    }
+
+    private final HashMap<Integer, E> m_elements;
+    private final HashMap<Integer, String> m_fingerprints;
+    private final List<E> m_list;
+    private final long m_version;
+
+    private IdentitySet(ArrayList<E> list,
+			HashMap<Integer, E> elements,
+			HashMap<Integer, String> fingerprints,
+			long version)
+    {
+	m_elements = elements;
+	m_fingerprints = fingerprints;
+	m_list = Collections.unmodifiableList(list);
+	m_version = version;
+    }
+
+    public IdentitySet()
+    {
+	this(new ArrayList<E> (),
+	     new HashMap<Integer, E> (),
+	     new HashMap<Integer, String> (),
+	     0L);
+    }
+
+    public E get(int oid)
+    {
+	return m_elements.get(oid);
+    }
+
+    public IdentitySet<E> update(SparseArray<String> fingerprints,
+				 Loader<E> loader)
+    {
+	/*
+	** Returns this set if nothing has changed. Elements whose
+	** fingerprints are unchanged are shared with this set.
+	*/
+
+	if(fingerprints == null || loader == null)
+	    return this;
+
+	ArrayList<E> list = new ArrayList<> ();
+	HashMap<Integer, E> elements = new HashMap<> ();
+	HashMap<Integer, String> map = new HashMap<> ();
+	boolean changed = fingerprints.size() != m_fingerprints.size();
+
+	for(int i = 0; i < fingerprints.size(); i++)
+	{
+	    E element = null;
+	    String fingerprint = fingerprints.valueAt(i);
+	    int oid = fingerprints.keyAt(i);
+
+	    if(fingerprint != null &&
+	       fingerprint.equals(m_fingerprints.get(oid)))
+		element = m_elements.get(oid);
+	    else
+	    {
+		changed = true;
+		element = loader.load(oid);
+	    }
+
+	    if(element == null)
+		/*
+		** The element will be loaded again by the next update.
+		*/
+
+		continue;
+
+	    elements.put(oid, element);
+	    list.add(element);
+	    map.put(oid, fingerprint);
+	}
+
+	if(!changed)
+	    return this;
+
+	return new IdentitySet<> (list, elements, map, m_version + 1L);
+    }
+
+    public List<E> elements()
+    {
+	return m_list;
+    }
+
+    public int size()
+    {
+	return m_list.size();
+    }
+
+    public long version()
+    {
+	return m_version;
+    }
+}
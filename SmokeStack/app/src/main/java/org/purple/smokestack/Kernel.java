@@ -29,29 +29,29 @@ package org.purple.smokestack;
 
 import android.content.Context;
 import android.content.Intent;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.wifi.WifiManager.WifiLock;
 import android.net.wifi.WifiManager;
 import android.os.PowerManager.WakeLock;
 import android.os.PowerManager;
 import android.support.v4.content.LocalBroadcastManager;
-import android.util.Base64;
-import android.util.SparseArray;
 import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
 import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Kernel
@@ -68,8 +68,6 @@ public class Kernel
 	}
     };
 
-    private ArrayList<OzoneElement> m_ozones = null;
-    private ArrayList<SipHashIdElement> m_sipHashIds = null;
     private ConcurrentHashMap<Integer, TcpListener> m_listeners = null;
     private LinkedList<SipHashIdentityPair> m_releaseMessagesQueue = null;
     private ScheduledExecutorService m_congestionScheduler = null;
@@ -80,14 +78,36 @@ public class Kernel
     private ScheduledExecutorService m_releaseMessagesSchedulers[] = null;
     private WakeLock m_wakeLock = null;
     private WifiLock m_wifiLock = null;
-    private final ReentrantReadWriteLock m_ozonesMutex = new
-	ReentrantReadWriteLock();
+    private volatile ClientsSnapshot m_clientsSnapshot =
+	new ClientsSnapshot(null, 0L);
+    private volatile IdentitySet<OzoneElement> m_ozones =
+	new IdentitySet<> ();
+    private volatile IdentitySet<SipHashIdElement> m_sipHashIds =
+	new IdentitySet<> ();
+    private final AtomicBoolean m_populateOzonesParticipants =
+	new AtomicBoolean(false);
+    private final AtomicLong m_clientsSnapshotVersion = new AtomicLong(0L);
+    private final ConcurrentHashMap<Integer, Neighbor> m_neighbors =
+	new ConcurrentHashMap<> ();
+    private final ConcurrentHashMap<String, Boolean> m_pendingTasks =
+	new ConcurrentHashMap<> ();
+    private final Object m_ozonesMutex = new Object();
+    private final Object m_sipHashIdsMutex = new Object();
     private final ReentrantReadWriteLock m_releaseMessagesQueueMutex = new
 	ReentrantReadWriteLock();
-    private final ReentrantReadWriteLock m_sipHashIdsMutex = new
-	ReentrantReadWriteLock();
-    private final SparseArray<Neighbor> m_neighbors = new SparseArray<> ();
+    private final RoutingIdentities m_routingIdentities =
+	new RoutingIdentities();
+    private final ScheduledExecutorService m_populateScheduler =
+	Executors.newSingleThreadScheduledExecutor();
+    private final ThreadPoolExecutor m_tasksExecutor = new ThreadPoolExecutor
+	(TASKS_THREADS,
+	 TASKS_THREADS,
+	 0L,
+	 TimeUnit.MILLISECONDS,
+	 new ArrayBlockingQueue<Runnable> (TASKS_QUEUE_CAPACITY));
     private final static Database s_databaseHelper = Database.getInstance();
+    private final static ConnectivityMonitor s_connectivityMonitor =
+	ConnectivityMonitor.getInstance();
     private final static Cryptography s_cryptography =
 	Cryptography.getInstance();
     private final static SipHash s_congestionSipHash = new SipHash
@@ -97,6 +117,8 @@ public class Kernel
     private final static int NUMBER_OF_CORES = Math.max
 	(4, Runtime.getRuntime().availableProcessors());
     private final static int ROUTING_ENTRY_LIFETIME = CONGESTION_LIFETIME;
+    private final static int TASKS_QUEUE_CAPACITY = 128;
+    private final static int TASKS_THREADS = 2;
     private final static long CHAT_MESSAGE_RETRIEVAL_WINDOW = 30000L; /*
 								      ** 30
 								      ** Seconds
@@ -174,26 +196,111 @@ public class Kernel
 
     public boolean isNetworkAvailable()
     {
+	return s_connectivityMonitor.connected();
+    }
+
+    private static void abort(ArrayList<TcpListener> listeners,
+			      ArrayList<Neighbor> neighbors)
+    {
+	/*
+	** Close all of the sockets and stop all of the schedulers
+	** first. The remaining threads then share a single deadline
+	** so that teardown does not depend on the number of connections.
+	*/
+
+	ArrayList<Neighbor> arrayList = new ArrayList<> ();
+
+	if(listeners != null)
+	    for(TcpListener listener : listeners)
+		arrayList.addAll(listener.shutdown());
+
+	if(neighbors != null)
+	    for(Neighbor neighbor : neighbors)
+	    {
+		neighbor.shutdown();
+		arrayList.add(neighbor);
+	    }
+
+	long deadline = Neighbor.teardownDeadline();
+
+	if(listeners != null)
+	    for(TcpListener listener : listeners)
+		listener.awaitTermination(deadline);
+
+	for(Neighbor neighbor : arrayList)
+	    neighbor.awaitTermination(deadline);
+    }
+
+    private boolean executeTask(final String key, final Runnable runnable)
+    {
+	/*
+	** Expensive work which is requested by remote peers is
+	** performed here rather than on the neighbors' parsing threads.
+	** Identical tasks which have not yet started are coalesced.
+	** Tasks which exceed the queue's capacity are discarded and
+	** false is returned.
+	*/
+
+	if(m_pendingTasks.putIfAbsent(key, Boolean.TRUE) != null)
+	    return true;
+
 	try
 	{
-	    ConnectivityManager connectivityManager = (ConnectivityManager)
-		SmokeStack.getApplication().getSystemService
-		(Context.CONNECTIVITY_SERVICE);
-	    NetworkInfo networkInfo = connectivityManager.
-		getActiveNetworkInfo();
+	    m_tasksExecutor.execute(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    m_pendingTasks.remove(key);
 
-	    if(networkInfo.getState() !=
-	       android.net.NetworkInfo.State.CONNECTED)
-		return false;
+		    try
+		    {
+			runnable.run();
+		    }
+		    catch(Exception exception)
+		    {
+		    }
+		}
+	    });
 	}
 	catch(Exception exception)
 	{
+	    m_pendingTasks.remove(key);
 	    return false;
 	}
 
 	return true;
     }
 
+    private boolean writeSharedSipHashId(final String name,
+					 final String sipHashId)
+    {
+	return executeTask("share:" + name, new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		if(!s_databaseHelper.
+		   writeSipHashParticipant(s_cryptography,
+					   name,
+					   sipHashId,
+					   true))
+		    return;
+
+		byte bytes[] = Cryptography.generateOzone(name);
+
+		if(bytes != null)
+		    s_databaseHelper.writeOzone(s_cryptography, name, bytes);
+
+		/*
+		** A burst of shared identities requires a single reload.
+		*/
+
+		schedulePopulateOzonesParticipants();
+	    }
+	});
+    }
+
     private void prepareListeners()
     {
 	if(!isNetworkAvailable())
@@ -211,6 +318,8 @@ public class Kernel
 	    return;
 	}
 
+	ArrayList<TcpListener> arrayList = new ArrayList<> ();
+
 	try
 	{
 	    for(Integer key : m_listeners.keySet())
@@ -220,7 +329,6 @@ public class Kernel
 		** Also removed will be listeners having disconnected statuses.
 		*/
 
-		TcpListener value = m_listeners.get(key);
 		boolean found = false;
 
 		for(ListenerElement listenerElement : listeners)
@@ -235,10 +343,10 @@ public class Kernel
 
 		if(!found)
 		{
-		    if(value != null)
-			value.abort();
+		    TcpListener value = m_listeners.remove(key);
 
-		    m_listeners.remove(key);
+		    if(value != null)
+			arrayList.add(value);
 		}
 	    }
 	}
@@ -246,6 +354,8 @@ public class Kernel
 	{
 	}
 
+	abort(arrayList, null);
+
 	for(ListenerElement listenerElement : listeners)
 	{
 	    if(listenerElement == null)
@@ -322,11 +432,8 @@ public class Kernel
 		continue;
 	    else
 	    {
-		synchronized(m_neighbors)
-		{
-		    if(m_neighbors.get(neighborElement.m_oid) != null)
-			continue;
-		}
+		if(m_neighbors.containsKey(neighborElement.m_oid))
+		    continue;
 
 		if(neighborElement.m_statusControl.toLowerCase().
 		   equals("delete") ||
@@ -399,10 +506,8 @@ public class Kernel
 	    if(neighbor == null)
 		continue;
 
-	    synchronized(m_neighbors)
-	    {
-		m_neighbors.append(neighborElement.m_oid, neighbor);
-	    }
+	    if(m_neighbors.putIfAbsent(neighborElement.m_oid, neighbor) != null)
+		neighbor.abort();
 	}
 
 	neighbors.clear();
@@ -460,6 +565,14 @@ public class Kernel
 		    catch(Exception exception)
 		    {
 		    }
+
+		    try
+		    {
+			BufferPool.getInstance().detectLeaks();
+		    }
+		    catch(Exception exception)
+		    {
+		    }
 		}
 	    }, 1500L, CONGESTION_INTERVAL, TimeUnit.MILLISECONDS);
 	}
@@ -514,8 +627,7 @@ public class Kernel
 		{
 		    try
 		    {
-			s_databaseHelper.purgeExpiredRoutingEntries
-			    (ROUTING_ENTRY_LIFETIME);
+			m_routingIdentities.purge(ROUTING_ENTRY_LIFETIME);
 		    }
 		    catch(Exception exception)
 		    {
@@ -611,7 +723,8 @@ public class Kernel
 					 joinByteArrays(arrayList.get(0),
 							destination));
 
-				    enqueueMessage(message);
+				    enqueueMessage
+					(message, Neighbor.LANE_RELEASE);
 				    m_oid.set
 					(Miscellaneous.
 					 byteArrayToInt(arrayList.get(2)));
@@ -635,43 +748,102 @@ public class Kernel
 	** Disconnect all existing sockets.
 	*/
 
+	ArrayList<TcpListener> arrayList = new ArrayList<> ();
+
 	try
 	{
 	    for(Integer key : m_listeners.keySet())
 	    {
-		TcpListener value = m_listeners.get(key);
+		TcpListener value = m_listeners.remove(key);
 
 		if(value != null)
-		    value.abort();
+		    arrayList.add(value);
 	    }
-
-	    m_listeners.clear();
 	}
 	catch(Exception exception)
 	{
 	}
+
+	abort(arrayList, null);
     }
 
     private void purgeNeighbors()
     {
 	/*
-	** Disconnect all non-server sockets.
+	** Disconnect all non-server sockets. Neighbors are removed
+	** from the registry before they are aborted.
 	*/
 
-	synchronized(m_neighbors)
+	ArrayList<Neighbor> arrayList = new ArrayList<> ();
+
+	for(Integer key : m_neighbors.keySet())
 	{
-	    int size = m_neighbors.size();
+	    Neighbor neighbor = m_neighbors.remove(key);
 
-	    for(int i = 0; i < size; i++)
+	    if(neighbor != null)
+		arrayList.add(neighbor);
+	}
+
+	abort(null, arrayList);
+    }
+
+    private void replyPublicKeyPair(final String sipHashId,
+				    final String destination)
+    {
+	executeTask("pkp:" + sipHashId + ":" + destination, new Runnable()
+	{
+	    @Override
+	    public void run()
 	    {
-		int j = m_neighbors.keyAt(i);
+		String array[] = s_databaseHelper.readPublicKeyPair
+		    (s_cryptography, sipHashId);
+
+		if(array == null)
+		    return;
+
+		String message = Messages.bytesToMessageString
+		    (Messages.epksMessage(destination, array));
 
-		if(m_neighbors.get(j) != null)
-		    m_neighbors.get(j).abort();
+		enqueueMessage(message, Neighbor.LANE_REPLY);
 	    }
+	});
+    }
 
-	    m_neighbors.clear();
-	}
+    private void schedulePopulateOzonesParticipants()
+    {
+	/*
+	** The reload is never discarded. Requests which arrive while
+	** a reload is pending are satisfied by it.
+	*/
+
+	if(!m_populateOzonesParticipants.compareAndSet(false, true))
+	    return;
+
+	m_populateScheduler.execute(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		m_populateOzonesParticipants.set(false);
+
+		try
+		{
+		    populateOzones();
+		    populateSipHashIds();
+
+		    Intent intent = new Intent
+			("org.purple.smokestack.populate_ozones_participants");
+		    LocalBroadcastManager localBroadcastManager =
+			LocalBroadcastManager.getInstance
+			(SmokeStack.getApplication());
+
+		    localBroadcastManager.sendBroadcast(intent);
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	});
     }
 
     public ArrayList<NeighborElement> purgeDeletedNeighbors()
@@ -685,44 +857,54 @@ public class Kernel
 	    return neighbors;
 	}
 
-	synchronized(m_neighbors)
-	{
-	    /*
-	    ** Remove neighbor objects which do not exist in the database.
-	    ** Also removed will be neighbors having disconnected statuses.
-	    */
-
-	    for(int i = m_neighbors.size() - 1; i >= 0; i--)
-	    {
-		boolean found = false;
-		int oid = m_neighbors.keyAt(i);
+	/*
+	** Remove neighbor objects which do not exist in the database.
+	** Also removed will be neighbors having disconnected statuses.
+	*/
 
-		for(NeighborElement neighborElement : neighbors)
-		    if(neighborElement != null && neighborElement.m_oid == oid)
-		    {
-			if(!neighborElement.m_statusControl.toLowerCase().
-			   equals("disconnect"))
-			    found = true;
+	ArrayList<Neighbor> arrayList = new ArrayList<> ();
 
-			break;
-		    }
+	for(Integer key : m_neighbors.keySet())
+	{
+	    boolean found = false;
 
-		if(!found)
+	    for(NeighborElement neighborElement : neighbors)
+		if(neighborElement != null && neighborElement.m_oid == key)
 		{
-		    if(m_neighbors.get(oid) != null)
-			m_neighbors.get(oid).abort();
+		    if(!neighborElement.m_statusControl.toLowerCase().
+		       equals("disconnect"))
+			found = true;
 
-		    m_neighbors.remove(oid);
+		    break;
 		}
+
+	    if(!found)
+	    {
+		Neighbor neighbor = m_neighbors.remove(key);
+
+		if(neighbor != null)
+		    arrayList.add(neighbor);
 	    }
 	}
 
+	abort(null, arrayList);
+
 	return neighbors;
     }
 
-    public String remoteClientAddress(int position)
+    public ClientsSnapshot clientsSnapshot()
     {
-	ArrayList<String> arrayList = new ArrayList<>();
+	return m_clientsSnapshot;
+    }
+
+    public ClientsSnapshot refreshClientsSnapshot()
+    {
+	/*
+	** Collect the clients of all listeners once. Readers share
+	** the resulting snapshot.
+	*/
+
+	ArrayList<ClientElement> arrayList = new ArrayList<> ();
 
 	try
 	{
@@ -731,26 +913,46 @@ public class Kernel
 		TcpListener value = m_listeners.get(key);
 
 		if(value != null)
-		{
-		    ArrayList<String> addresses = value.clientsAddresses();
-
-		    if(addresses != null)
-		    {
-			arrayList.addAll(addresses);
-			addresses.clear();
-		    }
-		}
+		    arrayList.addAll(value.clients());
 	    }
 	}
 	catch(Exception exception)
 	{
 	}
 
-	Collections.sort(arrayList);
-	return arrayList.get(position);
+	m_clientsSnapshot = new ClientsSnapshot
+	    (arrayList, m_clientsSnapshotVersion.incrementAndGet());
+	return m_clientsSnapshot;
+    }
+
+    public ListenerElement listenerStatistics(int oid)
+    {
+	TcpListener listener = m_listeners.get(oid);
+
+	if(listener != null)
+	    return listener.statistics();
+
+	return null;
+    }
+
+    public NeighborElement neighborStatistics(int oid)
+    {
+	Neighbor neighbor = m_neighbors.get(oid);
+
+	if(neighbor != null)
+	    return neighbor.statistics();
+
+	return null;
+    }
+
+    public boolean containsRoutingIdentity(String clientIdentity,
+					   MessageEnvelope message)
+    {
+	return m_routingIdentities.contains(clientIdentity, message);
     }
 
-    public boolean ourMessage(String buffer,
+    public boolean ourMessage(MessageEnvelope buffer,
+			      TokenBucket keyRequests,
 			      UUID clientIdentity,
 			      boolean userDefined)
     {
@@ -764,8 +966,7 @@ public class Kernel
 
 	try
 	{
-	    long value = s_congestionSipHash.hmac
-		(buffer.getBytes(), Cryptography.SIPHASH_OUTPUT_LENGTH / 2)[0];
+	    long value = buffer.congestionDigest(s_congestionSipHash);
 
 	    if(!userDefined)
 		/*
@@ -780,8 +981,9 @@ public class Kernel
 		    ** A client has shared an identity stream.
 		    */
 
-		    s_databaseHelper.writeIdentity
-			(clientIdentity, Messages.stripMessage(buffer));
+		    m_routingIdentities.addIdentity
+			(clientIdentity.toString(),
+			 Messages.stripMessage(buffer.message()));
 
 		    /*
 		    ** Do not echo the identity stream to other neighbors.
@@ -796,13 +998,10 @@ public class Kernel
 		    */
 
 		    s_databaseHelper.writeCongestionDigest(value);
-		    s_databaseHelper.deleteRoutingEntry
-			(clientIdentity.toString());
-
-		    byte bytes[] = Base64.decode
-			(Messages.stripMessage(buffer), Base64.DEFAULT);
+		    m_routingIdentities.remove(clientIdentity.toString());
 
-		    s_databaseHelper.writeIdentities(clientIdentity, bytes);
+		    m_routingIdentities.addIdentities
+			(clientIdentity.toString(), buffer.payload());
 		    return true;
 		}
 		else if(buffer.contains("type=0096&content="))
@@ -815,8 +1014,7 @@ public class Kernel
 	    if(s_databaseHelper.containsCongestionDigest(value))
 		return true;
 
-	    byte bytes[] = Base64.decode
-		(Messages.stripMessage(buffer), Base64.DEFAULT);
+	    byte bytes[] = buffer.payload();
 
 	    if(bytes == null || bytes.length < 128)
 		return false;
@@ -825,18 +1023,7 @@ public class Kernel
 	    ** EPKS?
 	    */
 
-	    ArrayList<SipHashIdElement> arrayList1 = null;
-
-	    m_sipHashIdsMutex.readLock().lock();
-
-	    try
-	    {
-		arrayList1 = m_sipHashIds;
-	    }
-	    finally
-	    {
-		m_sipHashIdsMutex.readLock().unlock();
-	    }
+	    List<SipHashIdElement> arrayList1 = m_sipHashIds.elements();
 
 	    byte data[] = Arrays.copyOfRange // Blocks #1, #2, etc.
 		(bytes, 0, bytes.length - 2 * Cryptography.HASH_KEY_LENGTH);
@@ -919,18 +1106,7 @@ public class Kernel
 	    ** Ozone-based messages.
 	    */
 
-	    ArrayList<OzoneElement> arrayList2 = null;
-
-	    m_ozonesMutex.readLock().lock();
-
-	    try
-	    {
-		arrayList2 = m_ozones;
-	    }
-	    finally
-	    {
-		m_ozonesMutex.readLock().unlock();
-	    }
+	    List<OzoneElement> arrayList2 = m_ozones.elements();
 
 	    if(arrayList2 == null || arrayList2.size() == 0)
 		return false;
@@ -1073,6 +1249,14 @@ public class Kernel
 				PKP_MESSAGE_RETRIEVAL_WINDOW)
 			    return true;
 
+			/*
+			** Replies require a public key pair and the
+			** derivation of a SipHash stream.
+			*/
+
+			if(keyRequests != null && !keyRequests.consume())
+			    return true;
+
 			String sipHashId = new String
 			    (Arrays.copyOfRange(ciphertext,
 						9 +
@@ -1080,23 +1264,15 @@ public class Kernel
 						SIPHASH_IDENTITY_LENGTH,
 						ciphertext.length),
 			     StandardCharsets.UTF_8);
-			String array[] = s_databaseHelper.readPublicKeyPair
-			    (s_cryptography, sipHashId);
-
-			if(array == null)
-			    return true;
-
-			sipHashId = new String
-			    (Arrays.
-			     copyOfRange(ciphertext,
-					 9,
-					 9 +
-					 Cryptography.SIPHASH_IDENTITY_LENGTH));
 
-			String message = Messages.bytesToMessageString
-			    (Messages.epksMessage(sipHashId, array));
-
-			enqueueMessage(message);
+			replyPublicKeyPair
+			    (sipHashId,
+			     new String(Arrays.
+					copyOfRange(ciphertext,
+						    9,
+						    9 +
+						    Cryptography.
+						    SIPHASH_IDENTITY_LENGTH)));
 			return true;
 		    }
 		    else if(ciphertext[0] == Messages.SHARE_SIPHASH_ID[0])
@@ -1126,29 +1302,13 @@ public class Kernel
 
 			name = sipHashId.toUpperCase().trim();
 
-			if(s_databaseHelper.
-			   writeSipHashParticipant(s_cryptography,
-						   name,
-						   sipHashId,
-						   true))
-			{
-			    if((bytes = Cryptography.
-				generateOzone(name)) != null)
-				if(s_databaseHelper.
-				   writeOzone(s_cryptography, name, bytes))
-				    populateOzones();
-
-			    populateSipHashIds();
-
-			    Intent intent = new Intent
-				("org.purple.smokestack." +
-				 "populate_ozones_participants");
-			    LocalBroadcastManager localBroadcastManager =
-				LocalBroadcastManager.getInstance
-				(SmokeStack.getApplication());
-
-			    localBroadcastManager.sendBroadcast(intent);
-			}
+			/*
+			** Do not confirm an identity which will not
+			** be recorded.
+			*/
+
+			if(!writeSharedSipHashId(name, sipHashId))
+			    return false;
 
 			byte identity[] = Arrays.copyOfRange
 			    (ciphertext,
@@ -1160,7 +1320,8 @@ public class Kernel
 			     sipHashId,
 			     identity,
 			     ozoneElement.m_addressStream);
-			enqueueMessage(Messages.bytesToMessageString(bytes));
+			enqueueMessage(Messages.bytesToMessageString(bytes),
+				       Neighbor.LANE_REPLY);
 
 			/*
 			** Echo the shared Smoke identity.
@@ -1231,10 +1392,7 @@ public class Kernel
 
     public int neighborsCount()
     {
-	synchronized(m_neighbors)
-	{
-	    return m_neighbors.size();
-	}
+	return m_neighbors.size();
     }
 
     public int remoteClientsCount()
@@ -1258,6 +1416,16 @@ public class Kernel
 	return count;
     }
 
+    public long neighborDropped(int oid)
+    {
+	Neighbor neighbor = m_neighbors.get(oid);
+
+	if(neighbor != null)
+	    return neighbor.dropped();
+
+	return 0L;
+    }
+
     public static synchronized Kernel getInstance()
     {
 	if(s_instance == null)
@@ -1266,15 +1434,26 @@ public class Kernel
 	return s_instance;
     }
 
-    public static void writeCongestionDigest(String message)
+    public static void clearRoutingIdentities()
+    {
+	/*
+	** The kernel is not created if it does not exist.
+	*/
+
+	synchronized(Kernel.class)
+	{
+	    if(s_instance != null)
+		s_instance.m_routingIdentities.clear();
+	}
+    }
+
+    public static void writeCongestionDigest(MessageEnvelope message)
     {
 	if(message != null)
 	    try
 	    {
 		s_databaseHelper.writeCongestionDigest
-		    (s_congestionSipHash.
-		     hmac(message.getBytes(),
-			  Cryptography.SIPHASH_OUTPUT_LENGTH)[0]);
+		    (message.sentCongestionDigest(s_congestionSipHash));
 	    }
 	    catch(Exception exception)
 	    {
@@ -1297,28 +1476,30 @@ public class Kernel
 
     public void clearNeighborQueues()
     {
-	synchronized(m_neighbors)
-	{
-	    int size = m_neighbors.size();
-
-	    for(int i = 0; i < size; i++)
+	for(Neighbor neighbor : m_neighbors.values())
+	    if(neighbor != null)
 	    {
-		int j = m_neighbors.keyAt(i);
-
-		if(m_neighbors.get(j) != null)
-		{
-		    m_neighbors.get(j).clearEchoQueue();
-		    m_neighbors.get(j).clearQueue();
-		}
+		neighbor.clearEchoQueue();
+		neighbor.clearQueue();
 	    }
-	}
     }
 
-    public void echo(String message, int oid)
+    public void deleteRoutingEntry(String clientIdentity)
+    {
+	m_routingIdentities.remove(clientIdentity);
+    }
+
+    public void echo(MessageEnvelope message, int oid)
     {
-	if(message == null || message.trim().isEmpty())
+	if(message == null || message.isEmpty())
 	    return;
 
+	/*
+	** The registries are traversed without locking.
+	*/
+
+	ArrayList<Neighbor> arrayList = new ArrayList<> ();
+
 	try
 	{
 	    for(Integer key : m_listeners.keySet())
@@ -1326,31 +1507,55 @@ public class Kernel
 		TcpListener value = m_listeners.get(key);
 
 		if(value != null)
-		    value.scheduleEchoSend(message, oid);
+		    value.echoNeighbors(arrayList, oid);
 	    }
 	}
 	catch(Exception exception)
 	{
 	}
 
-	synchronized(m_neighbors)
-	{
-	    int size = m_neighbors.size();
+	for(Neighbor neighbor : m_neighbors.values())
+	    if(neighbor != null && neighbor.getOid() != oid)
+		arrayList.add(neighbor);
+
+	/*
+	** The message is enqueued for all of the admitting neighbors
+	** in a single transaction.
+	*/
+
+	ArrayList<Neighbor> admitted = new ArrayList<> ();
+
+	for(Neighbor neighbor : arrayList)
+	    if(neighbor.admitEcho())
+		admitted.add(neighbor);
+
+	int size = admitted.size();
+
+	if(size == 0)
+	    return;
+
+	boolean enqueued[] = new boolean[size];
+	int oids[] = new int[size];
 
+	for(int i = 0; i < size; i++)
+	    oids[i] = admitted.get(i).getOid();
+
+	if(s_databaseHelper.enqueueOutboundMessage
+	   (s_cryptography, message, true, oids, enqueued) > 0)
 	    for(int i = 0; i < size; i++)
-	    {
-		int j = m_neighbors.keyAt(i);
+		if(enqueued[i])
+		    admitted.get(i).echoEnqueued();
+    }
 
-		if(m_neighbors.get(j) != null &&
-		   m_neighbors.get(j).getOid() != oid)
-		    m_neighbors.get(j).scheduleEchoSend(message);
-	    }
-	}
+    public void enqueueMessage(String message, int lane)
+    {
+	if(message != null)
+	    enqueueMessage(new MessageEnvelope(message), lane);
     }
 
-    public void enqueueMessage(String message)
+    public void enqueueMessage(MessageEnvelope message, int lane)
     {
-	if(!isNetworkAvailable() || message == null || message.trim().isEmpty())
+	if(!isNetworkAvailable() || message == null || message.isEmpty())
 	    return;
 
 	try
@@ -1360,7 +1565,7 @@ public class Kernel
 		TcpListener value = m_listeners.get(key);
 
 		if(value != null)
-		    value.scheduleSend(message);
+		    value.scheduleSend(message, lane);
 	    }
 	}
 	catch(Exception exception)
@@ -1372,17 +1577,22 @@ public class Kernel
 
 	if(arrayList != null && arrayList.size() > 0)
 	{
+	    int oids[] = new int[arrayList.size()];
+	    int count = 0;
 	    int size = arrayList.size();
 
 	    for(int i = 0; i < size; i++)
 		if(arrayList.get(i) != null &&
 		   arrayList.get(i).m_statusControl.toLowerCase().
 		   equals("connect"))
-		    s_databaseHelper.enqueueOutboundMessage
-			(s_cryptography,
-			 message,
-			 false,
-			 arrayList.get(i).m_oid);
+		    oids[count++] = arrayList.get(i).m_oid;
+
+	    if(count > 0)
+		s_databaseHelper.enqueueOutboundMessage
+		    (s_cryptography,
+		     message,
+		     false,
+		     Arrays.copyOf(oids, count));
 
 	    arrayList.clear();
 	}
@@ -1390,35 +1600,76 @@ public class Kernel
 
     public void populateOzones()
     {
-	m_ozonesMutex.writeLock().lock();
+	/*
+	** Readers are never blocked. Writers publish a new set
+	** in which only added or modified ozones were decrypted.
+	*/
 
-	try
-	{
-	    m_ozones = s_databaseHelper.readOzones(s_cryptography);
-	}
-	catch(Exception exception)
+	synchronized(m_ozonesMutex)
 	{
-	}
-	finally
-	{
-	    m_ozonesMutex.writeLock().unlock();
+	    try
+	    {
+		m_ozones = m_ozones.update
+		    (s_databaseHelper.readOzoneFingerprints(),
+		     new IdentitySet.Loader<OzoneElement> ()
+		     {
+			 @Override
+			 public OzoneElement load(int oid)
+			 {
+			     ArrayList<OzoneElement> arrayList =
+				 s_databaseHelper.readOzones
+				 (s_cryptography, oid);
+
+			     /*
+			     ** Ozones which cannot be decrypted, perhaps
+			     ** because the credentials have not yet been
+			     ** provided, are loaded again later.
+			     */
+
+			     if(arrayList == null ||
+				arrayList.isEmpty() ||
+				arrayList.get(0).m_addressStream == null)
+				 return null;
+
+			     return arrayList.get(0);
+			 }
+		     });
+	    }
+	    catch(Exception exception)
+	    {
+	    }
 	}
     }
 
     public void populateSipHashIds()
     {
-	m_sipHashIdsMutex.writeLock().lock();
-
-	try
-	{
-	    m_sipHashIds = s_databaseHelper.readSipHashIds(s_cryptography);
-	}
-	catch(Exception exception)
+	synchronized(m_sipHashIdsMutex)
 	{
-	}
-	finally
-	{
-	    m_sipHashIdsMutex.writeLock().unlock();
+	    try
+	    {
+		m_sipHashIds = m_sipHashIds.update
+		    (s_databaseHelper.readSipHashIdFingerprints(),
+		     new IdentitySet.Loader<SipHashIdElement> ()
+		     {
+			 @Override
+			 public SipHashIdElement load(int oid)
+			 {
+			     ArrayList<SipHashIdElement> arrayList =
+				 s_databaseHelper.readSipHashIds
+				 (s_cryptography, oid);
+
+			     if(arrayList == null ||
+				arrayList.isEmpty() ||
+				arrayList.get(0).m_stream == null)
+				 return null;
+
+			     return arrayList.get(0);
+			 }
+		     });
+	    }
+	    catch(Exception exception)
+	    {
+	    }
 	}
     }
 
@@ -37,6 +37,7 @@ import android.view.ViewGroup;
 public class ListenersAdapter extends RecyclerView.Adapter
 				      <ListenersAdapter.ViewHolder>
 {
+    private ClientsSnapshot m_clientsSnapshot = null;
     private Settings m_settings = null;
 
     public static class ViewHolder extends RecyclerView.ViewHolder
@@ -75,9 +76,20 @@ public class ListenersAdapter extends RecyclerView.Adapter
 
     public ListenersAdapter(Settings settings)
     {
+	m_clientsSnapshot = Kernel.getInstance().clientsSnapshot();
 	m_settings = settings;
     }
 
+    public void setClientsSnapshot(ClientsSnapshot clientsSnapshot)
+    {
+	/*
+	** Must be called on the UI thread.
+	*/
+
+	if(clientsSnapshot != null)
+	    m_clientsSnapshot = clientsSnapshot;
+    }
+
     @Override
     public ListenersAdapter.ViewHolder onCreateViewHolder
 	(ViewGroup parent, int viewType)
@@ -89,7 +101,7 @@ public class ListenersAdapter extends RecyclerView.Adapter
     @Override
     public int getItemCount()
     {
-	return Kernel.getInstance().remoteClientsCount();
+	return m_clientsSnapshot.size();
     }
 
     @Override
@@ -98,10 +110,6 @@ public class ListenersAdapter extends RecyclerView.Adapter
 	if(viewHolder == null)
 	    return;
 
-	ClientElement clientElement = new ClientElement();
-
-	clientElement.m_address = Kernel.getInstance().
-	    remoteClientAddress(position);
-	viewHolder.setData(clientElement, position);
+	viewHolder.setData(m_clientsSnapshot.get(position), position);
     }
 }
@@ -0,0 +1,162 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import android.util.Base64;
+
+/*
+** An immutable message which is shared by reference with every
+** neighbor. The encoded bytes, the decoded payload, and the digests
+** are computed at most once.
+*/
+
+public class MessageEnvelope
+{
+    private volatile Long m_congestionDigest = null;
+    private volatile Long m_sentCongestionDigest = null;
+    private volatile String m_outboundDigest = null;
+    private volatile byte m_bytes[] = null;
+    private volatile byte m_payload[] = null;
+    private volatile boolean m_payloadDecoded = false;
+    private final String m_message;
+
+    public MessageEnvelope(String message)
+    {
+	m_message = message == null ? "" : message;
+    }
+
+    public String message()
+    {
+	return m_message;
+    }
+
+    public String outboundDigest(Cryptography cryptography)
+    {
+	/*
+	** The HMAC of outbound_queue rows.
+	*/
+
+	String digest = m_outboundDigest;
+
+	if(digest == null && cryptography != null)
+	    try
+	    {
+		digest = m_outboundDigest = Base64.encodeToString
+		    (cryptography.hmac(bytes()), Base64.DEFAULT);
+	    }
+	    catch(Exception exception)
+	    {
+		digest = null;
+	    }
+
+	return digest;
+    }
+
+    public boolean contains(String string)
+    {
+	return m_message.contains(string);
+    }
+
+    public boolean isEmpty()
+    {
+	return m_message.trim().isEmpty();
+    }
+
+    public byte[] bytes()
+    {
+	byte bytes[] = m_bytes;
+
+	if(bytes == null)
+	    bytes = m_bytes = m_message.getBytes();
+
+	return bytes;
+    }
+
+    public byte[] payload()
+    {
+	/*
+	** The Base64-decoded content. Callers must not modify
+	** the returned array.
+	*/
+
+	if(!m_payloadDecoded)
+	{
+	    try
+	    {
+		m_payload = Base64.decode
+		    (Messages.stripMessage(m_message), Base64.DEFAULT);
+	    }
+	    catch(Exception exception)
+	    {
+		m_payload = null;
+	    }
+
+	    m_payloadDecoded = true;
+	}
+
+	return m_payload;
+    }
+
+    public int length()
+    {
+	return m_message.length();
+    }
+
+    public long congestionDigest(SipHash sipHash)
+    {
+	/*
+	** The digest of received messages.
+	*/
+
+	Long digest = m_congestionDigest;
+
+	if(digest == null)
+	    digest = m_congestionDigest = sipHash.hmac
+		(bytes(), Cryptography.SIPHASH_OUTPUT_LENGTH / 2)[0];
+
+	return digest;
+    }
+
+    public long sentCongestionDigest(SipHash sipHash)
+    {
+	/*
+	** The digest of sent messages. SipHash's initial state
+	** depends on the output length, so the digest differs from
+	** the digest of received messages.
+	*/
+
+	Long digest = m_sentCongestionDigest;
+
+	if(digest == null)
+	    digest = m_sentCongestionDigest = sipHash.hmac
+		(bytes(), Cryptography.SIPHASH_OUTPUT_LENGTH)[0];
+
+	return digest;
+    }
+}
@@ -27,36 +27,79 @@
 
 package org.purple.smokestack;
 
-import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.util.Base64;
+import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public abstract class Neighbor
 {
-    private ConcurrentLinkedQueue<String> m_queue = null;
+    private TokenBucket m_controlBucket = null;
+    private TokenBucket m_frameBucket = null;
+    private TokenBucket m_keyRequestBucket = null;
+    private TimerWheel.Timeout m_capabilitiesTimeout = null;
+    private TimerWheel.Timeout m_statusTimeout = null;
+    private boolean m_writable = false;
+    private final ArrayList<ConcurrentLinkedQueue<MessageEnvelope>> m_lanes =
+	new ArrayList<> ();
+    private final AtomicBoolean m_capabilitiesPending =
+	new AtomicBoolean(false);
+    private final AtomicBoolean m_statusPending = new AtomicBoolean(false);
+    private final AtomicInteger m_echoQueued = new AtomicInteger(0);
+    private final AtomicInteger m_queueCount = new AtomicInteger(0);
+    private final AtomicIntegerArray m_laneDepths =
+	new AtomicIntegerArray(LANES);
+    private final AtomicLong m_dropped = new AtomicLong(0L);
+    private final AtomicLong m_queueBytes = new AtomicLong(0L);
+    private final AtomicLongArray m_laneBytes = new AtomicLongArray(LANES);
+    private final Object m_writableMutex = new Object();
     private final ScheduledExecutorService m_parsingScheduler =
 	Executors.newSingleThreadScheduledExecutor();
-    private final ScheduledExecutorService m_scheduler =
-	Executors.newSingleThreadScheduledExecutor();
     private final ScheduledExecutorService m_sendOutboundScheduler =
 	Executors.newSingleThreadScheduledExecutor();
+    private final static AtomicLong s_dropped = new AtomicLong(0L);
+    private final static AtomicLong s_queueBytes = new AtomicLong(0L);
+    private final static ConnectivityMonitor s_connectivityMonitor =
+	ConnectivityMonitor.getInstance();
+    private final static Set<Neighbor> s_neighbors =
+	Collections.newSetFromMap(new ConcurrentHashMap<Neighbor, Boolean> ());
+    private final static double BURST_SECONDS = 8.0;
+    private final static double CONTROL_FRAMES_PER_SECOND = 2.0;
+    private final static double FRAMES_PER_SECOND = 64.0;
+    private final static double KEY_REQUESTS_PER_SECOND = 0.2;
+    private final static int CONTROL_MESSAGES_PER_TICK = 16;
+    private final static int HOUSEKEEPING_THREADS = 2;
+    private final static int LANES = 3;
     private final static int LANE_WIDTH = 8 * 1024 * 1024; // 8 MiB
+    private final static long CAPABILITIES_INTERVAL = 30000L; // 30 Seconds
     private final static long DATA_LIFETIME = 15000L; // 15 Seconds
     private final static long PARSING_INTERVAL = 100L; // Milliseconds
     private final static long SEND_OUTBOUND_TIMER_INTERVAL =
 	25L; // Milliseconds
     private final static long SILENCE = 90000L; // 90 Seconds
     private final static long TIMER_INTERVAL = 2500L; // 2.5 Seconds
+    private final static long WRITABLE_TIMEOUT = 5000L; // 5 Seconds
+    private final static ThreadPoolExecutor s_housekeepingExecutor =
+	new ThreadPoolExecutor
+	(HOUSEKEEPING_THREADS,
+	 HOUSEKEEPING_THREADS,
+	 0L,
+	 TimeUnit.MILLISECONDS,
+	 new LinkedBlockingQueue<Runnable> ());
     protected AtomicBoolean m_allowUnsolicited = null;
     protected AtomicBoolean m_clientSupportsCryptographicDiscovery = null;
     protected AtomicBoolean m_disconnected = null;
@@ -68,6 +111,7 @@ public abstract class Neighbor
     protected AtomicLong m_bytesRead = null;
     protected AtomicLong m_bytesWritten = null;
     protected AtomicLong m_lastParsed = null;
+    protected AtomicLong m_lastSuccessfulRead = null;
     protected AtomicLong m_lastTimeRead = null;
     protected AtomicLong m_startTime = null;
     protected Cryptography m_cryptography = null;
@@ -83,43 +127,389 @@ public abstract class Neighbor
     protected final StringBuffer m_error = new StringBuffer();
     protected final StringBuffer m_randomBuffer = new StringBuffer();
     protected final StringBuffer m_stringBuffer = new StringBuffer();
+    protected final static int BYTES_PER_DATAGRAM_READ =
+	65536; // Largest UDP datagram.
     protected final static int BYTES_PER_READ = 1024 * 1024; // 1 MiB
     protected final static int MAXIMUM_BYTES = LANE_WIDTH;
     protected final static int SO_SNDBUF = 32 * 1024; // 32 KiB
     protected final static int SO_TIMEOUT = 0; // 0 Seconds
-    protected final static long AWAIT_TERMINATION = 10L; // 10 Seconds
     protected final static long READ_SOCKET_INTERVAL = 50L; // 50 Milliseconds
+    protected final static long TEARDOWN_DEADLINE = 1000L; // 1 Second
     protected final static long WAIT_TIMEOUT = 10000L; // 10 Seconds
+    public final static int LANE_CONTROL = 0;
+    public final static int LANE_RELEASE = 2;
+    public final static int LANE_REPLY = 1;
     public final static int SO_RCVBUF = 32 * 1024; // 32 KiB
 
+    protected static void awaitTermination
+	(ScheduledExecutorService scheduler, long deadline)
+    {
+	try
+	{
+	    if(!scheduler.
+	       awaitTermination(Math.max(0L, deadline - System.nanoTime()),
+				TimeUnit.NANOSECONDS))
+		scheduler.shutdownNow();
+	}
+	catch(Exception exception)
+	{
+	    scheduler.shutdownNow();
+	}
+    }
+
+    private static Neighbor largestQueue(int lane)
+    {
+	Neighbor largest = null;
+	long bytes = 0L;
+
+	for(Neighbor neighbor : s_neighbors)
+	{
+	    long value = neighbor.evictableBytes(lane);
+
+	    if(value > bytes)
+	    {
+		bytes = value;
+		largest = neighbor;
+	    }
+	}
+
+	return largest;
+    }
+
+    private static long evictableBytesTotal(int lane)
+    {
+	long bytes = 0L;
+
+	for(Neighbor neighbor : s_neighbors)
+	    bytes += neighbor.evictableBytes(lane);
+
+	return bytes;
+    }
+
     private void saveStatistics()
     {
-	String localIp = getLocalIp();
-	String localPort = String.valueOf(getLocalPort());
-	String queueSize = String.valueOf(m_queue.size());
-	String sessionCiper = getSessionCipher();
-	boolean connected = connected();
-	long uptime = System.nanoTime() - m_startTime.get();
+	NeighborElement neighborElement = statistics();
 
 	m_databaseHelper.saveNeighborInformation
 	    (m_cryptography,
-	     String.valueOf(m_stringBuffer.length()),
-	     String.valueOf(m_bytesRead.get()),
-	     String.valueOf(m_bytesWritten.get()),
-	     m_error.toString(),
-	     localIp,
-	     localPort,
-	     queueSize,
-	     sessionCiper,
-	     connected ? "connected" : "disconnected",
-	     String.valueOf(uptime),
-	     String.valueOf(m_oid.get()));
+	     neighborElement.m_bytesBuffered,
+	     neighborElement.m_bytesRead,
+	     neighborElement.m_bytesWritten,
+	     neighborElement.m_error,
+	     neighborElement.m_localIpAddress,
+	     neighborElement.m_localPort,
+	     neighborElement.m_queueSize,
+	     neighborElement.m_sessionCipher,
+	     neighborElement.m_status,
+	     neighborElement.m_uptime,
+	     String.valueOf(neighborElement.m_oid));
     }
 
-    private void terminateOnSilence()
+    private MessageEnvelope pollQueue(int lane)
     {
-	if((System.nanoTime() - m_lastTimeRead.get()) / 1000000L > SILENCE)
-	    disconnect();
+	MessageEnvelope message = m_lanes.get(lane).poll();
+
+	if(message != null)
+	{
+	    m_laneBytes.getAndAdd(lane, -message.length());
+	    m_laneDepths.getAndDecrement(lane);
+	    m_queueBytes.getAndAdd(-message.length());
+	    m_queueCount.getAndDecrement();
+	    s_queueBytes.getAndAdd(-message.length());
+	}
+
+	return message;
+    }
+
+    private MessageEnvelope pollQueue()
+    {
+	/*
+	** The most important lane first.
+	*/
+
+	for(int i = 0; i < LANES; i++)
+	    if(m_laneDepths.get(i) > 0)
+	    {
+		MessageEnvelope message = pollQueue(i);
+
+		if(message != null)
+		    return message;
+	    }
+
+	return null;
+    }
+
+    private int evictableCount(int lane)
+    {
+	int count = 0;
+
+	for(int i = lane; i < LANES; i++)
+	    count += m_laneDepths.get(i);
+
+	return count;
+    }
+
+    private long evictableBytes(int lane)
+    {
+	long bytes = 0L;
+
+	for(int i = lane; i < LANES; i++)
+	    bytes += m_laneBytes.get(i);
+
+	return bytes;
+    }
+
+    private boolean hasRoom(QueueLimits limits, long length)
+    {
+	return m_queueCount.get() < limits.maximumCount() &&
+	    m_queueBytes.get() + length <= limits.maximumBytes() &&
+	    s_queueBytes.get() + length <= limits.globalMaximumBytes();
+    }
+
+    private boolean evict(int lane)
+    {
+	/*
+	** Discard the oldest message of the least important lane.
+	** A message never displaces a more important one.
+	*/
+
+	for(int i = LANES - 1; i >= lane; i--)
+	    if(pollQueue(i) != null)
+	    {
+		dropped(1);
+		return true;
+	    }
+
+	return false;
+    }
+
+    private boolean makeRoom(QueueLimits limits, long length, int lane)
+    {
+	if(hasRoom(limits, length))
+	    return true;
+
+	if(limits.policy().equals(QueueLimits.DISCONNECT))
+	{
+	    disconnectSlowConsumer();
+	    return false;
+	}
+
+	/*
+	** Nothing is discarded if the message cannot be admitted.
+	*/
+
+	if(m_queueBytes.get() + length - limits.maximumBytes() >
+	   evictableBytes(lane) ||
+	   m_queueCount.get() + 1 - limits.maximumCount() >
+	   evictableCount(lane) ||
+	   s_queueBytes.get() + length - limits.globalMaximumBytes() >
+	   evictableBytesTotal(lane))
+	    return false;
+
+	int evicted = 0;
+
+	/*
+	** The global limit is charged to the largest queues.
+	*/
+
+	while(s_queueBytes.get() + length > limits.globalMaximumBytes())
+	{
+	    Neighbor neighbor = largestQueue(lane);
+
+	    if(neighbor == null || !neighbor.evict(lane))
+		return false;
+
+	    if(neighbor == this)
+		evicted += 1;
+	}
+
+	while(!hasRoom(limits, length))
+	{
+	    if(!evict(lane))
+		return false;
+
+	    evicted += 1;
+	}
+
+	if(evicted > 0 &&
+	   limits.policy().equals(QueueLimits.DROP_ECHO_FIRST))
+	{
+	    /*
+	    ** Relayed messages are discarded as well, one for each of
+	    ** our own messages which was displaced.
+	    */
+
+	    int count = m_databaseHelper.trimOutboundQueue
+		(true, m_oid.get(), Math.max(0, m_echoQueued.get() - evicted));
+
+	    m_echoQueued.getAndAdd(-count);
+	    dropped(count);
+	}
+
+	return true;
+    }
+
+    private TokenBucket prepareBucket(String name, double defaultRate)
+    {
+	double rate = defaultRate;
+
+	try
+	{
+	    rate = Double.parseDouble(m_databaseHelper.readSetting(null, name));
+
+	    if(rate <= 0.0)
+		rate = defaultRate;
+	}
+	catch(Exception exception)
+	{
+	    rate = defaultRate;
+	}
+
+	return new TokenBucket(rate, rate * BURST_SECONDS);
+    }
+
+    private boolean admitFrame(String buffer)
+    {
+	/*
+	** Frames of remote clients are rate-limited per client and
+	** per message class before any cryptographic work.
+	*/
+
+	if(m_controlBucket == null || m_frameBucket == null)
+	    return true;
+
+	if(buffer.contains("type=0014&content=") ||
+	   buffer.contains("type=0095a&content=") ||
+	   buffer.contains("type=0095b&content=") ||
+	   buffer.contains("type=0096&content=") ||
+	   buffer.contains("type=0097a&content=") ||
+	   buffer.contains("type=0097b&content="))
+	    return m_controlBucket.consume();
+	else
+	    return m_frameBucket.consume();
+    }
+
+    private boolean silent()
+    {
+	return (System.nanoTime() - m_lastTimeRead.get()) / 1000000L > SILENCE;
+    }
+
+    private void disconnectSlowConsumer()
+    {
+	setError("The neighbor's queues exceeded their limits.");
+	disconnect();
+    }
+
+    private void dropped(long count)
+    {
+	if(count > 0)
+	{
+	    m_dropped.getAndAdd(count);
+	    s_dropped.getAndAdd(count);
+	}
+    }
+
+    private void executeHousekeeping(final AtomicBoolean pending,
+				     final Runnable runnable)
+    {
+	/*
+	** The TimerWheel's thread is shared by all of the neighbors.
+	** Database and socket work is performed here instead. A task
+	** which has not yet started is not scheduled again, so the
+	** unbounded queue holds at most two tasks per neighbor.
+	*/
+
+	if(!pending.compareAndSet(false, true))
+	    return;
+
+	Runnable task = new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		pending.set(false);
+
+		try
+		{
+		    runnable.run();
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	};
+
+	try
+	{
+	    s_housekeepingExecutor.execute(task);
+	}
+	catch(Exception exception)
+	{
+	    /*
+	    ** The executor is never shut down. Do not lose the work
+	    ** should it refuse a task.
+	    */
+
+	    task.run();
+	}
+    }
+
+    private void purgeQueue()
+    {
+	for(int i = 0; i < LANES; i++)
+	{
+	    MessageEnvelope message = null;
+
+	    do
+	    {
+		message = pollQueue(i);
+	    }
+	    while(message != null);
+	}
+    }
+
+    private void trimQueues()
+    {
+	QueueLimits limits = QueueLimits.getInstance();
+	int count = 0;
+
+	/*
+	** Messages which are queued for this neighbor in the
+	** database are bounded by the same count.
+	*/
+
+	count = m_databaseHelper.trimOutboundQueue
+	    (false, m_oid.get(), limits.maximumCount());
+
+	if(count > 0)
+	{
+	    dropped(count);
+
+	    if(connected() &&
+	       limits.policy().equals(QueueLimits.DISCONNECT))
+		disconnectSlowConsumer();
+	}
+
+	m_echoQueued.set
+	    (m_databaseHelper.countOutboundQueue(true, m_oid.get()));
+    }
+
+    private void expireBuffer()
+    {
+	/*
+	** Discard partial data which has not been completed
+	** within DATA_LIFETIME.
+	*/
+
+	synchronized(m_stringBuffer)
+	{
+	    if(m_stringBuffer.length() > 0 &&
+	       System.currentTimeMillis() - m_lastParsed.get() > DATA_LIFETIME)
+	    {
+		m_stringBuffer.delete(0, m_stringBuffer.length());
+		m_stringBuffer.trimToSize();
+	    }
+	}
     }
 
     protected Neighbor(String ipAddress,
@@ -142,9 +532,9 @@ public abstract class Neighbor
 	m_ipPort = ipPort;
 	m_isPrivateServer = new AtomicBoolean(isPrivateServer);
 	m_lastParsed = new AtomicLong(System.currentTimeMillis());
+	m_lastSuccessfulRead = new AtomicLong(0L);
 	m_lastTimeRead = new AtomicLong(System.nanoTime());
 	m_oid = new AtomicInteger(oid);
-	m_queue = new ConcurrentLinkedQueue<> ();
 	m_remoteUserAuthenticated = new AtomicBoolean(userDefined);
 	m_requestUnsolicitedSent = new AtomicBoolean(false);
 	m_startTime = new AtomicLong(System.nanoTime());
@@ -152,6 +542,22 @@ public abstract class Neighbor
 	m_uuid = UUID.randomUUID();
 	m_version = version;
 
+	for(int i = 0; i < LANES; i++)
+	    m_lanes.add(new ConcurrentLinkedQueue<MessageEnvelope> ());
+
+	s_neighbors.add(this);
+
+	if(!userDefined)
+	{
+	    m_controlBucket = prepareBucket
+		("neighbors_control_frames_per_second",
+		 CONTROL_FRAMES_PER_SECOND);
+	    m_frameBucket = prepareBucket
+		("neighbors_frames_per_second", FRAMES_PER_SECOND);
+	    m_keyRequestBucket = prepareBucket
+		("neighbors_key_requests_per_second", KEY_REQUESTS_PER_SECOND);
+	}
+
 	/*
 	** Start the schedules.
 	*/
@@ -194,9 +600,8 @@ public abstract class Neighbor
 		    }
 
 		    /*
-		    ** Detect our end-of-message delimiter.
-		    ** If the end-of-message marker has not been detected
-		    ** for some period of time, purge m_stringBuffer.
+		    ** Detect our end-of-message delimiter. Stale data
+		    ** is purged by expireBuffer().
 		    */
 
 		    int indexOf = -1;
@@ -208,11 +613,25 @@ public abstract class Neighbor
 
 			m_lastParsed.set(System.currentTimeMillis());
 
-			String buffer = m_stringBuffer.
-			    substring(0, indexOf + Messages.EOM.length());
+			String buffer = null;
+
+			synchronized(m_stringBuffer)
+			{
+			    if((indexOf = m_stringBuffer.
+				indexOf(Messages.EOM)) < 0)
+				break;
+
+			    buffer = m_stringBuffer.substring
+				(0, indexOf + Messages.EOM.length());
+			    m_stringBuffer.delete(0, buffer.length());
+			    m_stringBuffer.trimToSize();
+			}
 
-			m_stringBuffer.delete(0, buffer.length());
-			m_stringBuffer.trimToSize();
+			if(!admitFrame(buffer))
+			{
+			    dropped(1);
+			    continue;
+			}
 
 			if(m_isPrivateServer.get())
 			    if(!m_remoteUserAuthenticated.get())
@@ -239,11 +658,19 @@ public abstract class Neighbor
 				}
 			    }
 
+			/*
+			** The envelope is shared with every neighbor
+			** which echoes the message.
+			*/
+
+			MessageEnvelope message = new MessageEnvelope(buffer);
+
 			if(!Kernel.getInstance().
-			   ourMessage(buffer,
+			   ourMessage(message,
+				      m_keyRequestBucket,
 				      m_uuid,
 				      m_userDefined.get()))
-			    echo(buffer);
+			    echo(message);
 			else if(!m_userDefined.get())
 			{
 			    if(buffer.contains("type=0095a&content="))
@@ -259,9 +686,7 @@ public abstract class Neighbor
 			}
 		    }
 
-		    if(System.currentTimeMillis() - m_lastParsed.get() >
-		       DATA_LIFETIME ||
-		       m_stringBuffer.length() > MAXIMUM_BYTES)
+		    if(m_stringBuffer.length() > MAXIMUM_BYTES)
 			m_stringBuffer.delete(0, m_stringBuffer.length());
 
 		    m_stringBuffer.trimToSize();
@@ -271,51 +696,109 @@ public abstract class Neighbor
 		}
 	    }
 	}, 0L, PARSING_INTERVAL, TimeUnit.MILLISECONDS);
-	m_scheduler.scheduleAtFixedRate(new Runnable()
+
+	/*
+	** Housekeeping is performed by the shared TimerWheel.
+	*/
+
+	m_statusTimeout = TimerWheel.getInstance().schedule(new Runnable()
 	{
 	    @Override
 	    public void run()
 	    {
-		try
+		final boolean silent = silent();
+
+		executeHousekeeping(m_statusPending, new Runnable()
 		{
-		    if(m_oid.get() >= 0)
+		    @Override
+		    public void run()
 		    {
-			String statusControl = m_databaseHelper.
-			    readListenerNeighborStatusControl
-			    (m_cryptography, "neighbors", m_oid.get());
+			if(m_statusTimeout != null &&
+			   m_statusTimeout.cancelled())
+			    return;
 
-			switch(statusControl)
-			{
-			case "connect":
-			    connect();
-			    break;
-			case "disconnect":
-			    disconnect();
-			    setError("");
-			    break;
-			default:
-			    /*
-			    ** Abort!
-			    */
+			/*
+			** Silent neighbors are disconnected before the
+			** database is consulted.
+			*/
 
+			if(silent)
 			    disconnect();
-			    return;
+
+			if(m_oid.get() >= 0)
+			{
+			    String statusControl = m_databaseHelper.
+				readListenerNeighborStatusControl
+				(m_cryptography, "neighbors", m_oid.get());
+
+			    switch(statusControl)
+			    {
+			    case "connect":
+				/*
+				** Connection attempts are staggered by the
+				** ReconnectScheduler.
+				*/
+
+				if(connected())
+				    ReconnectScheduler.getInstance().
+					connected(Neighbor.this);
+				else
+				    ReconnectScheduler.getInstance().
+					request(Neighbor.this);
+
+				break;
+			    case "disconnect":
+				ReconnectScheduler.getInstance().
+				    remove(Neighbor.this);
+				disconnect();
+				setError("");
+				break;
+			    default:
+				/*
+				** Abort!
+				*/
+
+				disconnect();
+				return;
+			    }
+
+			    saveStatistics();
 			}
 
-			saveStatistics();
+			expireBuffer();
+			trimQueues();
 		    }
+		});
+	    }
+	}, 0L, TIMER_INTERVAL);
+	m_capabilitiesTimeout = TimerWheel.getInstance().schedule
+	    (new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		if(!connected() || m_disconnected.get())
+		    return;
 
-		    terminateOnSilence();
-		}
-		catch(Exception exception)
+		scheduleSend(getCapabilities(), LANE_CONTROL);
+
+		if(!m_userDefined.get() || m_requestUnsolicitedSent.get())
+		    return;
+
+		executeHousekeeping(m_capabilitiesPending, new Runnable()
 		{
-		}
+		    @Override
+		    public void run()
+		    {
+			if(!m_requestUnsolicitedSent.get())
+			    m_requestUnsolicitedSent.set
+				(send(Messages.requestUnsolicited()));
+		    }
+		});
 	    }
-	}, 0L, TIMER_INTERVAL, TimeUnit.MILLISECONDS);
+	}, CAPABILITIES_INTERVAL, CAPABILITIES_INTERVAL);
 	m_sendOutboundScheduler.scheduleAtFixedRate(new Runnable()
 	{
-	    private long m_accumulatedTime = System.nanoTime();
-
 	    @Override
 	    public void run()
 	    {
@@ -336,17 +819,27 @@ public abstract class Neighbor
 		    if(!connected() || m_disconnected.get())
 			return;
 
-		    if(System.nanoTime() - m_accumulatedTime >= 30000000000L)
+		    /*
+		    ** Control messages precede all other traffic.
+		    */
+
+		    for(int i = 0; i < CONTROL_MESSAGES_PER_TICK; i++)
 		    {
-			m_accumulatedTime = System.nanoTime();
-			send(getCapabilities());
+			MessageEnvelope message = pollQueue(LANE_CONTROL);
+
+			if(message == null)
+			    break;
 
-			if(m_userDefined.get())
-			    if(!m_requestUnsolicitedSent.get())
-				m_requestUnsolicitedSent.set
-				    (send(Messages.requestUnsolicited()));
+			send(message); // Ignore the results.
 		    }
 
+		    /*
+		    ** Direct replies and released messages.
+		    */
+
+		    if(m_queueCount.get() > 0)
+			send(pollQueue()); // Ignore the results.
+
 		    if(m_oid.get() >= 0)
 		    {
 			/*
@@ -362,27 +855,39 @@ public abstract class Neighbor
 
 			if(array != null && array.length == 2)
 			    if(send(array[0]))
-				m_databaseHelper.deleteEntry
-				    (array[1], "outbound_queue");
+				m_databaseHelper.deleteOutboundMessage
+				    (array[1], false);
 		    }
 
 		    /*
 		    ** Echo packets.
 		    */
 
-		    String array[] = m_databaseHelper.readOutboundMessage
-			(true, m_oid.get());
+		    String array[] = m_databaseHelper.readEchoMessage
+			(m_oid.get());
 
 		    if(array != null && array.length == 2)
 		    {
-			m_databaseHelper.deleteEntry
-			    (array[1], "outbound_queue");
+			/*
+			** The envelope is shared with the other neighbors
+			** which relay the same message.
+			*/
+
+			MessageEnvelope message = m_databaseHelper.
+			    echoEnvelope(array[0]);
+
+			if(m_databaseHelper.deleteEchoMessage
+			   (array[1], array[0]))
+			    m_echoQueued.getAndDecrement();
+
+			if(message == null)
+			    return;
 
 			if(!m_userDefined.get()) // A server.
 			{
 			    if(m_allowUnsolicited.get() ||
 			       !m_clientSupportsCryptographicDiscovery.get())
-				send(array[0]);
+				send(message);
 			    else
 				try
 				{
@@ -391,26 +896,19 @@ public abstract class Neighbor
 				    ** is correct.
 				    */
 
-				    if(m_databaseHelper.
+				    if(Kernel.getInstance().
 				       containsRoutingIdentity(m_uuid.
 							       toString(),
-							       array[0]))
-					send(array[0]); // Ignore the results.
+							       message))
+					send(message); // Ignore the results.
 				}
 				catch(Exception exception)
 				{
 				}
 			}
 			else
-			    send(array[0]); // Ignore the results.
+			    send(message); // Ignore the results.
 		    }
-
-		    /*
-		    ** Transfer real-time packets.
-		    */
-
-		    if(!m_queue.isEmpty())
-			send(m_queue.poll()); // Ignore the results.
 		}
 		catch(Exception exception)
 		{
@@ -467,32 +965,104 @@ public abstract class Neighbor
     protected abstract String getLocalIp();
     protected abstract String getRemoteIp();
     protected abstract boolean connected();
-    protected abstract boolean send(String message);
+    protected abstract boolean send(MessageEnvelope message);
     protected abstract int getLocalPort();
     protected abstract int getRemotePort();
     protected abstract void connect();
 
     protected boolean isNetworkConnected()
     {
-	try
+	return s_connectivityMonitor.connected();
+    }
+
+    protected boolean awaitWritable(DatagramChannel channel)
+    {
+	/*
+	** The UdpEngine reports when a full non-blocking channel
+	** may accept another datagram.
+	*/
+
+	synchronized(m_writableMutex)
+	{
+	    m_writable = false;
+	}
+
+	if(!UdpEngine.getInstance().requestWritable(channel))
+	    return false;
+
+	long deadline = System.nanoTime() + WRITABLE_TIMEOUT * 1000000L;
+
+	synchronized(m_writableMutex)
 	{
-	    ConnectivityManager connectivityManager = (ConnectivityManager)
-		SmokeStack.getApplication().getApplicationContext().
-		getSystemService(Context.CONNECTIVITY_SERVICE);
-	    NetworkInfo networkInfo = connectivityManager.
-		getActiveNetworkInfo();
+	    while(!m_writable && !m_disconnected.get())
+	    {
+		long remaining = (deadline - System.nanoTime()) / 1000000L;
+
+		if(remaining <= 0L)
+		    break;
+
+		try
+		{
+		    m_writableMutex.wait(remaining);
+		}
+		catch(Exception exception)
+		{
+		    break;
+		}
+	    }
 
-	    return networkInfo != null && networkInfo.isConnected();
+	    return m_writable;
 	}
-	catch(Exception exception)
+    }
+
+    protected void datagramError()
+    {
+	setError("A socket receive() error occurred.");
+	disconnect();
+    }
+
+    protected void datagramWritable()
+    {
+	synchronized(m_writableMutex)
 	{
+	    m_writable = true;
+	    m_writableMutex.notifyAll();
 	}
+    }
 
-	return false;
+    protected void datagramReceived(byte bytes[], int length)
+    {
+	if(bytes == null || length <= 0)
+	    return;
+
+	m_bytesRead.getAndAdd(length);
+	m_lastSuccessfulRead.set(System.nanoTime());
+	m_lastTimeRead.set(System.nanoTime());
+
+	if(m_stringBuffer.length() < MAXIMUM_BYTES)
+	    m_stringBuffer.append(new String(bytes, 0, length));
     }
 
     protected void abort()
     {
+	shutdown();
+	awaitTermination(teardownDeadline());
+    }
+
+    protected void awaitTermination(long deadline)
+    {
+	/*
+	** The deadline may be shared by many neighbors.
+	*/
+
+	awaitTermination(m_parsingScheduler, deadline);
+	awaitTermination(m_readSocketScheduler, deadline);
+	awaitTermination(m_sendOutboundScheduler, deadline);
+    }
+
+    protected void disconnect()
+    {
+	m_databaseHelper.deleteEchoQueue(m_oid.get());
 	m_disconnected.set(true);
 
 	synchronized(m_mutex)
@@ -500,82 +1070,44 @@ public abstract class Neighbor
 	    m_mutex.notifyAll();
 	}
 
-	synchronized(m_parsingScheduler)
-	{
-	    try
-	    {
-		m_parsingScheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
-
 	synchronized(m_parsingSchedulerObject)
 	{
 	    m_parsingSchedulerObject.notify();
 	}
 
-	synchronized(m_parsingScheduler)
-	{
-	    try
-	    {
-		if(!m_parsingScheduler.
-		   awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-		    m_parsingScheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
-
-	synchronized(m_scheduler)
+	synchronized(m_writableMutex)
 	{
-	    try
-	    {
-		m_scheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-
-	    try
-	    {
-		if(!m_scheduler.
-		   awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-		    m_scheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
+	    m_writableMutex.notifyAll();
 	}
 
-	synchronized(m_sendOutboundScheduler)
-	{
-	    try
-	    {
-		m_sendOutboundScheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-
-	    try
-	    {
-		if(!m_sendOutboundScheduler.
-		   awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-		    m_sendOutboundScheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
+	m_echoQueued.set(0);
+	purgeQueue();
+	m_stringBuffer.delete(0, m_stringBuffer.length());
+	m_stringBuffer.trimToSize();
     }
 
-    protected void disconnect()
+    protected void shutdown()
     {
-	m_databaseHelper.deleteEchoQueue(m_oid.get());
+	/*
+	** Stop all of the tasks without waiting. Subclasses close
+	** their sockets before calling this method.
+	*/
+
+	EchoScheduler.getInstance().remove(this);
+	ReconnectScheduler.getInstance().remove(this);
 	m_disconnected.set(true);
+	s_neighbors.remove(this);
+	purgeQueue();
+
+	if(m_capabilitiesTimeout != null)
+	    m_capabilitiesTimeout.cancel();
+
+	if(m_statusTimeout != null)
+	    m_statusTimeout.cancel();
+
+	m_parsingScheduler.shutdown();
+	m_readSocketScheduler.shutdown();
+	m_sendOutboundScheduler.shutdown();
 
 	synchronized(m_mutex)
 	{
@@ -586,15 +1118,21 @@ public abstract class Neighbor
 	{
 	    m_parsingSchedulerObject.notify();
 	}
+    }
 
-	m_queue.clear();
-	m_stringBuffer.delete(0, m_stringBuffer.length());
-	m_stringBuffer.trimToSize();
+    protected boolean send(String message)
+    {
+	return message != null && send(new MessageEnvelope(message));
     }
 
-    protected void echo(String message)
+    protected void echo(MessageEnvelope message)
     {
-	Kernel.getInstance().echo(message, m_oid.get());
+	/*
+	** Relayed fairly with the echoes of other neighbors.
+	*/
+
+	if(!EchoScheduler.getInstance().schedule(message, this))
+	    dropped(1);
     }
 
     protected void reset()
@@ -618,6 +1156,47 @@ public abstract class Neighbor
 	m_error.append(error);
     }
 
+    public ClientElement clientElement()
+    {
+	ClientElement clientElement = new ClientElement();
+
+	clientElement.m_address = address();
+	clientElement.m_bytesRead = m_bytesRead.get();
+	clientElement.m_bytesWritten = m_bytesWritten.get();
+	clientElement.m_uptime = (System.nanoTime() - m_startTime.get()) /
+	    1000000L;
+	return clientElement;
+    }
+
+    public NeighborElement statistics()
+    {
+	/*
+	** The run-time state of this neighbor. The interface reads
+	** these values instead of decrypting the neighbors table.
+	*/
+
+	NeighborElement neighborElement = new NeighborElement();
+
+	neighborElement.m_bytesBuffered = String.valueOf
+	    (m_stringBuffer.length());
+	neighborElement.m_bytesRead = String.valueOf(m_bytesRead.get());
+	neighborElement.m_bytesWritten = String.valueOf(m_bytesWritten.get());
+	neighborElement.m_error = m_error.toString();
+	neighborElement.m_localIpAddress = getLocalIp();
+	neighborElement.m_localPort = String.valueOf(getLocalPort());
+	neighborElement.m_oid = m_oid.get();
+	neighborElement.m_outboundEchoQueued = m_echoQueued.get();
+	neighborElement.m_queueSize = m_queueCount.get() +
+	    " (Control " + m_laneDepths.get(LANE_CONTROL) +
+	    ", Replies " + m_laneDepths.get(LANE_REPLY) +
+	    ", Release " + m_laneDepths.get(LANE_RELEASE) + ")";
+	neighborElement.m_sessionCipher = getSessionCipher();
+	neighborElement.m_status = connected() ? "connected" : "disconnected";
+	neighborElement.m_uptime = String.valueOf
+	    (System.nanoTime() - m_startTime.get());
+	return neighborElement;
+    }
+
     public String address()
     {
 	return "Local: " + getLocalIp() +
@@ -631,30 +1210,98 @@ public abstract class Neighbor
 	return m_oid.get();
     }
 
+    public long dropped()
+    {
+	return m_dropped.get();
+    }
+
+    public static long droppedTotal()
+    {
+	return s_dropped.get();
+    }
+
+    public static long teardownDeadline()
+    {
+	return System.nanoTime() +
+	    TimeUnit.MILLISECONDS.toNanos(TEARDOWN_DEADLINE);
+    }
+
     public void clearEchoQueue()
     {
 	m_databaseHelper.deleteEchoQueue(m_oid.get());
+	m_echoQueued.set(0);
     }
 
     public void clearQueue()
     {
-	m_queue.clear();
+	purgeQueue();
     }
 
-    public void scheduleEchoSend(String message)
+    public boolean admitEcho()
     {
-	if(!connected() || message == null || message.trim().isEmpty())
-	    return;
+	/*
+	** Makes room for another relayed message. The message itself
+	** is enqueued for all of its destinations by Kernel.echo().
+	*/
+
+	if(!connected())
+	    return false;
+
+	QueueLimits limits = QueueLimits.getInstance();
+
+	if(m_echoQueued.get() >= limits.maximumCount())
+	{
+	    if(limits.policy().equals(QueueLimits.DISCONNECT))
+	    {
+		disconnectSlowConsumer();
+		return false;
+	    }
+
+	    /*
+	    ** Discard the oldest relayed messages.
+	    */
+
+	    int count = m_databaseHelper.trimOutboundQueue
+		(true, m_oid.get(), limits.maximumCount() - 1);
 
-	m_databaseHelper.enqueueOutboundMessage
-	    (m_cryptography, message, true, m_oid.get());
+	    m_echoQueued.getAndAdd(-count);
+	    dropped(count);
+	}
+
+	return true;
+    }
+
+    public void echoEnqueued()
+    {
+	m_echoQueued.getAndIncrement();
     }
 
-    public void scheduleSend(String message)
+    public void scheduleSend(MessageEnvelope message, int lane)
     {
-	if(!connected() || message == null || message.trim().isEmpty())
+	if(!connected() ||
+	   lane < 0 ||
+	   lane >= LANES ||
+	   message == null ||
+	   message.isEmpty())
+	    return;
+
+	if(!makeRoom(QueueLimits.getInstance(), message.length(), lane))
+	{
+	    dropped(1);
 	    return;
+	}
 
-	m_queue.add(message);
+	m_lanes.get(lane).add(message);
+	m_laneBytes.getAndAdd(lane, message.length());
+	m_laneDepths.getAndIncrement(lane);
+	m_queueBytes.getAndAdd(message.length());
+	m_queueCount.getAndIncrement();
+	s_queueBytes.getAndAdd(message.length());
+    }
+
+    public void scheduleSend(String message, int lane)
+    {
+	if(message != null)
+	    scheduleSend(new MessageEnvelope(message), lane);
     }
 }
@@ -0,0 +1,145 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class QueueLimits
+{
+    private final AtomicLong m_lastRefresh = new AtomicLong(0L);
+    private volatile String m_policy = DROP_OLDEST;
+    private volatile int m_maximumCount = MAXIMUM_COUNT;
+    private volatile long m_globalMaximumBytes = GLOBAL_MAXIMUM_BYTES;
+    private volatile long m_maximumBytes = MAXIMUM_BYTES;
+    private final static int MAXIMUM_COUNT = 1024;
+    private final static long GLOBAL_MAXIMUM_BYTES =
+	64L * 1024L * 1024L; // 64 MiB
+    private final static long MAXIMUM_BYTES = 8L * 1024L * 1024L; // 8 MiB
+    private final static long REFRESH_INTERVAL = 5000L; // 5 Seconds
+    private static QueueLimits s_instance = null;
+    public final static String DISCONNECT = "Disconnect";
+    public final static String DROP_ECHO_FIRST = "Drop Echo First";
+    public final static String DROP_OLDEST = "Drop Oldest";
+
+    private QueueLimits()
+    {
+    }
+
+    private static long readLong(Database database,
+				 String name,
+				 long defaultValue)
+    {
+	try
+	{
+	    long value = Long.parseLong(database.readSetting(null, name));
+
+	    if(value > 0L)
+		return value;
+	}
+	catch(Exception exception)
+	{
+	}
+
+	return defaultValue;
+    }
+
+    private void refresh()
+    {
+	/*
+	** The limits are read from the settings table at most once
+	** every REFRESH_INTERVAL.
+	*/
+
+	long current = System.currentTimeMillis();
+	long last = m_lastRefresh.get();
+
+	if(current - last < REFRESH_INTERVAL ||
+	   !m_lastRefresh.compareAndSet(last, current))
+	    return;
+
+	Database database = Database.getInstance();
+
+	if(database == null)
+	    return;
+
+	String policy = database.readSetting(null, "neighbors_queue_policy");
+
+	if(policy.equals(DISCONNECT) || policy.equals(DROP_ECHO_FIRST))
+	    m_policy = policy;
+	else
+	    m_policy = DROP_OLDEST;
+
+	m_globalMaximumBytes = readLong
+	    (database, "neighbors_queues_maximum_bytes", GLOBAL_MAXIMUM_BYTES);
+	m_maximumBytes = readLong
+	    (database, "neighbors_queue_maximum_bytes", MAXIMUM_BYTES);
+	m_maximumCount = (int) Math.min
+	    (Integer.MAX_VALUE,
+	     readLong(database,
+		      "neighbors_queue_maximum_count",
+		      MAXIMUM_COUNT));
+    }
+
+    public String policy()
+    {
+	refresh();
+	return m_policy;
+    }
+
+    public int maximumCount()
+    {
+	refresh();
+	return m_maximumCount;
+    }
+
+    public long globalMaximumBytes()
+    {
+	refresh();
+	return m_globalMaximumBytes;
+    }
+
+    public long maximumBytes()
+    {
+	refresh();
+	return m_maximumBytes;
+    }
+
+    public static synchronized QueueLimits getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new QueueLimits();
+
+	return s_instance;
+    }
+
+    public void invalidate()
+    {
+	m_lastRefresh.set(0L);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReconnectScheduler
+{
+    private static class Attempt
+    {
+	public Neighbor m_neighbor = null;
+	public boolean m_inFlight = false;
+	public int m_failures = 0;
+	public long m_due = 0L;
+
+	public Attempt(Neighbor neighbor, long due)
+	{
+	    m_due = due;
+	    m_neighbor = neighbor;
+	}
+    }
+
+    private final AtomicInteger m_inFlight = new AtomicInteger(0);
+    private final ConcurrentHashMap<Neighbor, Attempt> m_attempts =
+	new ConcurrentHashMap<> ();
+    private final ExecutorService m_connectors =
+	Executors.newFixedThreadPool(MAXIMUM_IN_FLIGHT);
+    private final Random m_random = new Random();
+    private final ScheduledExecutorService m_scheduler =
+	Executors.newSingleThreadScheduledExecutor();
+    private final static Comparator<Attempt> s_priorityComparator =
+	new Comparator<Attempt> ()
+	{
+	    @Override
+	    public int compare(Attempt a1, Attempt a2)
+	    {
+		/*
+		** Neighbors which were read from most recently are
+		** attempted first. Connection attempts do not count.
+		*/
+
+		long l1 = a1.m_neighbor.m_lastSuccessfulRead.get();
+		long l2 = a2.m_neighbor.m_lastSuccessfulRead.get();
+
+		if(l1 > l2)
+		    return -1;
+		else if(l1 < l2)
+		    return 1;
+		else
+		    return 0;
+	    }
+	};
+    private final static int MAXIMUM_IN_FLIGHT = 4;
+    private final static long BACKOFF_BASE = 2500L; // 2.5 Seconds
+    private final static long BACKOFF_MAXIMUM = 300000L; // 5 Minutes
+    private final static long DISPATCH_INTERVAL = 100L; // Milliseconds
+    private final static long INITIAL_SPREAD = 5000L; // 5 Seconds
+    private static ReconnectScheduler s_instance = null;
+
+    private ReconnectScheduler()
+    {
+	m_scheduler.scheduleAtFixedRate(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		try
+		{
+		    dispatch();
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	}, 0L, DISPATCH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private long backoff(int failures)
+    {
+	/*
+	** Exponential backoff with equal jitter.
+	*/
+
+	long delay = BACKOFF_BASE << Math.min(failures, 16);
+
+	delay = Math.min(BACKOFF_MAXIMUM, delay);
+
+	synchronized(m_random)
+	{
+	    return delay / 2L + (long) (m_random.nextDouble() * (delay / 2L));
+	}
+    }
+
+    private void dispatch()
+    {
+	if(m_inFlight.get() >= MAXIMUM_IN_FLIGHT)
+	    return;
+
+	ArrayList<Attempt> arrayList = new ArrayList<> ();
+	long now = System.currentTimeMillis();
+
+	for(Attempt attempt : m_attempts.values())
+	    synchronized(attempt)
+	    {
+		if(!attempt.m_inFlight && attempt.m_due <= now)
+		    arrayList.add(attempt);
+	    }
+
+	if(arrayList.isEmpty())
+	    return;
+
+	Collections.sort(arrayList, s_priorityComparator);
+
+	for(final Attempt attempt : arrayList)
+	{
+	    if(m_inFlight.get() >= MAXIMUM_IN_FLIGHT)
+		break;
+
+	    synchronized(attempt)
+	    {
+		attempt.m_failures += 1;
+		attempt.m_inFlight = true;
+	    }
+
+	    m_inFlight.getAndIncrement();
+	    m_connectors.execute(new Runnable()
+	    {
+		@Override
+		public void run()
+		{
+		    try
+		    {
+			attempt.m_neighbor.connect();
+		    }
+		    catch(Exception exception)
+		    {
+		    }
+		    finally
+		    {
+			synchronized(attempt)
+			{
+			    attempt.m_due = System.currentTimeMillis() +
+				backoff(attempt.m_failures);
+			    attempt.m_inFlight = false;
+			}
+
+			m_inFlight.getAndDecrement();
+
+			/*
+			** The neighbor may have been aborted while
+			** connecting.
+			*/
+
+			if(m_attempts.get(attempt.m_neighbor) != attempt)
+			    attempt.m_neighbor.disconnect();
+		    }
+		}
+	    });
+	}
+    }
+
+    public static synchronized ReconnectScheduler getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new ReconnectScheduler();
+
+	return s_instance;
+    }
+
+    public void connected(Neighbor neighbor)
+    {
+	/*
+	** Reset the backoff of a connected neighbor.
+	*/
+
+	if(neighbor != null)
+	{
+	    Attempt attempt = m_attempts.get(neighbor);
+
+	    if(attempt != null)
+		synchronized(attempt)
+		{
+		    if(!attempt.m_inFlight)
+			m_attempts.remove(neighbor, attempt);
+		}
+	}
+    }
+
+    public void remove(Neighbor neighbor)
+    {
+	if(neighbor != null)
+	    m_attempts.remove(neighbor);
+    }
+
+    public void request(Neighbor neighbor)
+    {
+	/*
+	** New requests are spread over INITIAL_SPREAD so that
+	** neighbors which were created together do not connect
+	** together.
+	*/
+
+	if(neighbor == null || m_attempts.containsKey(neighbor))
+	    return;
+
+	long spread = 0L;
+
+	synchronized(m_random)
+	{
+	    spread = (long) (m_random.nextDouble() * INITIAL_SPREAD);
+	}
+
+	m_attempts.putIfAbsent
+	    (neighbor,
+	     new Attempt(neighbor, System.currentTimeMillis() + spread));
+    }
+}
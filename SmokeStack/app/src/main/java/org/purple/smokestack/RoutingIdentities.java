@@ -0,0 +1,371 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import android.util.Base64;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RoutingIdentities
+{
+    private static class Identity
+    {
+	public ConcurrentHashMap<String, AtomicLong> m_clients = null;
+	public byte m_identity[] = null;
+
+	public Identity(byte identity[])
+	{
+	    m_clients = new ConcurrentHashMap<> ();
+	    m_identity = identity;
+	}
+    }
+
+    private static class MessageDestination
+    {
+	public ConcurrentHashMap<String, Boolean> m_results = null;
+	public byte m_data[] = null;
+	public byte m_destination[] = null;
+	public long m_timestamp = 0L;
+
+	public MessageDestination(byte data[], byte destination[])
+	{
+	    m_data = data;
+	    m_destination = destination;
+	    m_results = new ConcurrentHashMap<> ();
+	    m_timestamp = System.currentTimeMillis();
+	}
+    }
+
+    private final ConcurrentHashMap<String, Identity> m_identities =
+	new ConcurrentHashMap<> ();
+    private final ConcurrentHashMap<String, Set<String>> m_clients =
+	new ConcurrentHashMap<> ();
+    private final LinkedHashMap<String, MessageDestination> m_destinations =
+	new LinkedHashMap<String, MessageDestination>
+	(MAXIMUM_DESTINATIONS, 0.75f, true)
+	{
+	    @Override
+	    protected boolean removeEldestEntry
+		(Map.Entry<String, MessageDestination> entry)
+	    {
+		return size() > MAXIMUM_DESTINATIONS;
+	    }
+	};
+    private final Object m_mutex = new Object();
+    private final static int IDENTITY_LENGTH = 64; // SHA-512
+    private final static int MAXIMUM_DESTINATIONS = 128;
+    private final static long TIMESTAMP_RESOLUTION = 1000L; // 1 Second
+
+    private MessageDestination destination(MessageEnvelope message)
+    {
+	MessageDestination destination = null;
+
+	synchronized(m_destinations)
+	{
+	    destination = m_destinations.get(message.message());
+	}
+
+	if(destination != null)
+	    return destination;
+
+	try
+	{
+	    String strings[] = Messages.stripMessage(message.message()).
+		split("\\n");
+	    byte data[] = null;
+	    byte hmac[] = null;
+
+	    if(strings != null && strings.length == 3) // Buzz, Fire
+	    {
+		data = Miscellaneous.joinByteArrays
+		    (Base64.decode(strings[0], Base64.NO_WRAP),
+		     Base64.decode(strings[1], Base64.NO_WRAP));
+		hmac = Base64.decode(strings[2], Base64.NO_WRAP);
+	    }
+	    else
+	    {
+		byte bytes[] = message.payload();
+
+		data = Arrays.copyOfRange
+		    (bytes, 0, bytes.length - IDENTITY_LENGTH);
+		hmac = Arrays.copyOfRange
+		    (bytes, bytes.length - IDENTITY_LENGTH, bytes.length);
+	    }
+
+	    destination = new MessageDestination(data, hmac);
+	}
+	catch(Exception exception)
+	{
+	    return null;
+	}
+
+	synchronized(m_destinations)
+	{
+	    /*
+	    ** Another neighbor may have decoded the same message.
+	    */
+
+	    MessageDestination value = m_destinations.get(message.message());
+
+	    if(value != null)
+		return value;
+
+	    m_destinations.put(message.message(), destination);
+	}
+
+	return destination;
+    }
+
+    private void add(String clientIdentity, byte identity[])
+    {
+	if(identity == null || identity.length == 0)
+	    return;
+
+	String key = Base64.encodeToString(identity, Base64.NO_WRAP);
+
+	synchronized(m_mutex)
+	{
+	    Identity value = m_identities.get(key);
+
+	    if(value == null)
+	    {
+		value = new Identity(identity);
+		m_identities.put(key, value);
+	    }
+
+	    value.m_clients.put
+		(clientIdentity, new AtomicLong(System.currentTimeMillis()));
+
+	    Set<String> set = m_clients.get(clientIdentity);
+
+	    if(set == null)
+	    {
+		set = Collections.newSetFromMap
+		    (new ConcurrentHashMap<String, Boolean> ());
+		m_clients.put(clientIdentity, set);
+	    }
+
+	    set.add(key);
+	}
+    }
+
+    public boolean contains(String clientIdentity, MessageEnvelope message)
+    {
+	if(clientIdentity == null ||
+	   clientIdentity.isEmpty() ||
+	   message == null ||
+	   message.isEmpty())
+	    return false;
+
+	Set<String> set = m_clients.get(clientIdentity);
+
+	if(set == null || set.isEmpty())
+	    return false;
+
+	MessageDestination destination = destination(message);
+
+	if(destination == null)
+	    return false;
+
+	for(String key : set)
+	{
+	    Identity identity = m_identities.get(key);
+
+	    if(identity == null)
+		continue;
+
+	    /*
+	    ** An identity is evaluated once per message regardless
+	    ** of the number of clients which share it.
+	    */
+
+	    Boolean result = destination.m_results.get(key);
+
+	    if(result == null)
+	    {
+		result = Cryptography.memcmp
+		    (Cryptography.hmac(destination.m_data,
+				       identity.m_identity),
+		     destination.m_destination);
+		destination.m_results.put(key, result);
+	    }
+
+	    if(result)
+	    {
+		AtomicLong timestamp = identity.m_clients.get(clientIdentity);
+		long current = System.currentTimeMillis();
+
+		if(timestamp != null &&
+		   current - timestamp.get() >= TIMESTAMP_RESOLUTION)
+		    timestamp.set(current);
+
+		return true;
+	    }
+	}
+
+	return false;
+    }
+
+    public void addIdentities(String clientIdentity, byte bytes[])
+    {
+	if(bytes == null || bytes.length == 0 || clientIdentity == null)
+	    return;
+
+	int length = bytes.length;
+
+	for(int i = 0; i + IDENTITY_LENGTH <= length; i += IDENTITY_LENGTH)
+	    add(clientIdentity,
+		Arrays.copyOfRange(bytes, i, i + IDENTITY_LENGTH));
+    }
+
+    public void addIdentity(String clientIdentity, String identity)
+    {
+	if(clientIdentity == null || identity == null || identity.isEmpty())
+	    return;
+
+	/*
+	** The identity variable may contain preferred algorithms.
+	*/
+
+	int index = identity.indexOf(";");
+
+	try
+	{
+	    if(index > 0)
+		add(clientIdentity,
+		    Base64.decode(identity.substring(0, index),
+				  Base64.DEFAULT));
+	    else
+		add(clientIdentity, Base64.decode(identity, Base64.DEFAULT));
+	}
+	catch(Exception exception)
+	{
+	}
+    }
+
+    public void clear()
+    {
+	synchronized(m_mutex)
+	{
+	    m_clients.clear();
+	    m_identities.clear();
+	}
+
+	synchronized(m_destinations)
+	{
+	    m_destinations.clear();
+	}
+    }
+
+    public void purge(int lifetime)
+    {
+	long current = System.currentTimeMillis();
+	long interval = 1000L * lifetime;
+
+	synchronized(m_mutex)
+	{
+	    Iterator<Map.Entry<String, Identity>> it =
+		m_identities.entrySet().iterator();
+
+	    while(it.hasNext())
+	    {
+		Map.Entry<String, Identity> entry = it.next();
+		Iterator<Map.Entry<String, AtomicLong>> jt =
+		    entry.getValue().m_clients.entrySet().iterator();
+
+		while(jt.hasNext())
+		{
+		    Map.Entry<String, AtomicLong> client = jt.next();
+
+		    if(Math.abs(current - client.getValue().get()) <=
+		       interval)
+			continue;
+
+		    Set<String> set = m_clients.get(client.getKey());
+
+		    if(set != null)
+		    {
+			set.remove(entry.getKey());
+
+			if(set.isEmpty())
+			    m_clients.remove(client.getKey());
+		    }
+
+		    jt.remove();
+		}
+
+		if(entry.getValue().m_clients.isEmpty())
+		    it.remove();
+	    }
+	}
+
+	synchronized(m_destinations)
+	{
+	    Iterator<MessageDestination> it =
+		m_destinations.values().iterator();
+
+	    while(it.hasNext())
+		if(Math.abs(current - it.next().m_timestamp) > interval)
+		    it.remove();
+	}
+    }
+
+    public void remove(String clientIdentity)
+    {
+	if(clientIdentity == null)
+	    return;
+
+	synchronized(m_mutex)
+	{
+	    Set<String> set = m_clients.remove(clientIdentity);
+
+	    if(set == null)
+		return;
+
+	    for(String key : set)
+	    {
+		Identity identity = m_identities.get(key);
+
+		if(identity != null)
+		{
+		    identity.m_clients.remove(clientIdentity);
+
+		    if(identity.m_clients.isEmpty())
+			m_identities.remove(key);
+		}
+	    }
+	}
+    }
+}
@@ -45,6 +45,7 @@ import android.text.InputType;
 import android.text.Spanned;
 import android.util.Base64;
 import android.util.LayoutDirection;
+import android.util.SparseIntArray;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.ContextMenu;
 import android.view.Gravity;
@@ -71,6 +72,7 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Locale;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -192,15 +194,21 @@ public class Settings extends AppCompatActivity
 	}
     }
 
+    private ArrayList<ListenerElement> m_listenerElements = null;
+    private ArrayList<NeighborElement> m_neighborElements = null;
     private Database m_databaseHelper = null;
+    private ListenersAdapter m_listenersAdapter = null;
     private ListenersLinearLayoutManager m_listenersLayoutManager = null;
     private RecyclerView m_listenersRecyclerView = null;
-    private RecyclerView.Adapter<?> m_listenersAdapter = null;
     private ScheduledExecutorService m_generalScheduler = null;
     private ScheduledExecutorService m_listenersScheduler = null;
     private ScheduledExecutorService m_neighborsScheduler = null;
     private SettingsBroadcastReceiver m_receiver = null;
     private boolean m_receiverRegistered = false;
+    private long m_listenerElementsChanges = -1L;
+    private long m_listenerElementsTimestamp = 0L;
+    private long m_neighborElementsChanges = -1L;
+    private long m_neighborElementsTimestamp = 0L;
     private final static Cryptography s_cryptography =
 	Cryptography.getInstance();
     private final static InputFilter s_portFilter = new InputFilter()
@@ -257,10 +265,181 @@ public class Settings extends AppCompatActivity
     private final static int TEXTVIEW_TEXT_SIZE = 13;
     private final static int TEXTVIEW_WIDTH = 500;
     private final static long AWAIT_TERMINATION = 10L; // 10 Seconds
+    private final static long CONFIGURATION_LIFETIME =
+	30000L; // 30 Seconds
     private final static long REFRESH_INTERVAL = 2500L; // 2.5 Seconds
     private final static long TIMER_INTERVAL = 2500L; // 2.5 Seconds
     private final static long m_start = System.currentTimeMillis();
 
+    private static ListenerElement listenerStatistics
+	(ListenerElement listenerElement)
+    {
+	/*
+	** Overlay the kernel's run-time state of a listener onto its
+	** stored configuration.
+	*/
+
+	ListenerElement statistics = Kernel.getInstance().
+	    listenerStatistics(listenerElement.m_oid);
+
+	if(statistics == null)
+	    return listenerElement;
+
+	statistics.m_certificate = listenerElement.m_certificate;
+	statistics.m_ipVersion = listenerElement.m_ipVersion;
+	statistics.m_isPrivate = listenerElement.m_isPrivate;
+	statistics.m_localIpAddress = listenerElement.m_localIpAddress;
+	statistics.m_localPort = listenerElement.m_localPort;
+	statistics.m_localScopeId = listenerElement.m_localScopeId;
+	statistics.m_privateKey = listenerElement.m_privateKey;
+	statistics.m_publicKey = listenerElement.m_publicKey;
+	statistics.m_statusControl = listenerElement.m_statusControl;
+	return statistics;
+    }
+
+    private static NeighborElement neighborStatistics
+	(NeighborElement neighborElement, SparseIntArray outboundQueueCounts)
+    {
+	NeighborElement statistics = Kernel.getInstance().
+	    neighborStatistics(neighborElement.m_oid);
+
+	/*
+	** The database queues are counted once for all of the neighbors.
+	*/
+
+	neighborElement.m_outboundQueued = outboundQueueCounts.get
+	    (neighborElement.m_oid);
+
+	if(statistics == null)
+	    return neighborElement;
+
+	statistics.m_outboundQueued = neighborElement.m_outboundQueued;
+
+	statistics.m_ipVersion = neighborElement.m_ipVersion;
+	statistics.m_proxyIpAddress = neighborElement.m_proxyIpAddress;
+	statistics.m_proxyPort = neighborElement.m_proxyPort;
+	statistics.m_proxyType = neighborElement.m_proxyType;
+	statistics.m_remoteCertificate = neighborElement.m_remoteCertificate;
+	statistics.m_remoteIpAddress = neighborElement.m_remoteIpAddress;
+	statistics.m_remotePort = neighborElement.m_remotePort;
+	statistics.m_remoteScopeId = neighborElement.m_remoteScopeId;
+	statistics.m_statusControl = neighborElement.m_statusControl;
+	statistics.m_transport = neighborElement.m_transport;
+	return statistics;
+    }
+
+    private static String listenerKey(ListenerElement listenerElement)
+    {
+	StringBuilder stringBuilder = new StringBuilder();
+
+	stringBuilder.append(listenerElement.m_localIpAddress);
+
+	if(listenerElement.m_ipVersion.equals("IPv6"))
+	    if(!listenerElement.m_localScopeId.isEmpty())
+	    {
+		stringBuilder.append("-");
+		stringBuilder.append(listenerElement.m_localScopeId);
+	    }
+
+	stringBuilder.append(":");
+	stringBuilder.append(listenerElement.m_localPort);
+	return stringBuilder.toString();
+    }
+
+    private static String neighborKey(NeighborElement neighborElement)
+    {
+	StringBuilder stringBuilder = new StringBuilder();
+
+	stringBuilder.append(neighborElement.m_remoteIpAddress);
+
+	if(neighborElement.m_ipVersion.equals("IPv6"))
+	    if(!neighborElement.m_remoteScopeId.isEmpty())
+	    {
+		stringBuilder.append("-");
+		stringBuilder.append(neighborElement.m_remoteScopeId);
+	    }
+
+	stringBuilder.append(":");
+	stringBuilder.append(neighborElement.m_remotePort);
+	stringBuilder.append(":");
+	stringBuilder.append(neighborElement.m_transport);
+	return stringBuilder.toString();
+    }
+
+    private static String participantSignature
+	(SipHashIdElement sipHashIdElement)
+    {
+	return sipHashIdElement.m_name + "\n" +
+	    sipHashIdElement.m_sipHashId + "\n" +
+	    sipHashIdElement.m_epksCompleted + "\n" +
+	    sipHashIdElement.m_keysSigned + "\n" +
+	    sipHashIdElement.m_outMessages + "\n" +
+	    sipHashIdElement.m_inMessages + "\n" +
+	    sipHashIdElement.m_totalMessages + "\n" +
+	    sipHashIdElement.m_timestamp;
+    }
+
+    private ArrayList<ListenerElement> listenerElements()
+    {
+	/*
+	** The listeners table is decrypted only if it was modified
+	** or if the cached configuration has expired.
+	*/
+
+	long changes = m_databaseHelper.tableChanges("listeners");
+
+	if(m_listenerElements == null ||
+	   m_listenerElementsChanges != changes ||
+	   Math.abs(System.currentTimeMillis() - m_listenerElementsTimestamp) >
+	   CONFIGURATION_LIFETIME)
+	{
+	    m_listenerElements = m_databaseHelper.readListeners
+		(s_cryptography, -1);
+	    m_listenerElementsChanges = changes;
+	    m_listenerElementsTimestamp = System.currentTimeMillis();
+	}
+
+	if(m_listenerElements == null)
+	    return null;
+
+	ArrayList<ListenerElement> arrayList = new ArrayList<> ();
+
+	for(ListenerElement listenerElement : m_listenerElements)
+	    if(listenerElement != null)
+		arrayList.add(listenerStatistics(listenerElement));
+
+	return arrayList;
+    }
+
+    private ArrayList<NeighborElement> neighborElements()
+    {
+	long changes = m_databaseHelper.tableChanges("neighbors");
+
+	if(m_neighborElements == null ||
+	   m_neighborElementsChanges != changes ||
+	   Math.abs(System.currentTimeMillis() - m_neighborElementsTimestamp) >
+	   CONFIGURATION_LIFETIME)
+	{
+	    m_neighborElements = m_databaseHelper.readNeighbors(s_cryptography);
+	    m_neighborElementsChanges = changes;
+	    m_neighborElementsTimestamp = System.currentTimeMillis();
+	}
+
+	if(m_neighborElements == null)
+	    return null;
+
+	ArrayList<NeighborElement> arrayList = new ArrayList<> ();
+	SparseIntArray outboundQueueCounts = m_databaseHelper.
+	    readOutboundQueueCounts();
+
+	for(NeighborElement neighborElement : m_neighborElements)
+	    if(neighborElement != null)
+		arrayList.add
+		    (neighborStatistics(neighborElement, outboundQueueCounts));
+
+	return arrayList;
+    }
+
     private boolean generateOzone(String string)
     {
 	byte bytes[] = Cryptography.generateOzone(string);
@@ -569,13 +748,19 @@ public class Settings extends AppCompatActivity
 	    return;
 	}
 
+	HashMap<String, TableRow> rows = new HashMap<> ();
 	StringBuilder stringBuilder = new StringBuilder();
 	int i = 0;
 
 	/*
-	** Remove table entries which do not exist in smokestack.db.
+	** Rows are keyed by their listeners' addresses. Remove table
+	** entries which do not exist in smokestack.db.
 	*/
 
+	for(ListenerElement listenerElement : arrayList)
+	    if(listenerElement != null)
+		rows.put(listenerKey(listenerElement), null);
+
 	for(i = tableLayout.getChildCount() - 1; i >= 0; i--)
 	{
 	    TableRow row = (TableRow) tableLayout.getChildAt(i);
@@ -583,41 +768,12 @@ public class Settings extends AppCompatActivity
 	    if(row == null)
 		continue;
 
-	    Switch switch1 = (Switch) row.getChildAt(0);
-
-	    if(switch1 == null)
-	    {
-		tableLayout.removeView(row);
-		continue;
-	    }
-
-	    boolean found = false;
-
-	    for(ListenerElement listenerElement : arrayList)
-	    {
-		stringBuilder.delete(0, stringBuilder.length());
-		stringBuilder.append(listenerElement.m_localIpAddress);
-
-		if(listenerElement.m_ipVersion.equals("IPv6"))
-		    if(!listenerElement.m_localScopeId.isEmpty())
-		    {
-			stringBuilder.append("-");
-			stringBuilder.append(listenerElement.m_localScopeId);
-		    }
-
-		stringBuilder.append(":");
-		stringBuilder.append(listenerElement.m_localPort);
-
-		if(switch1.getText().toString().
-		   contains(stringBuilder.toString()))
-		{
-		    found = true;
-		    break;
-		}
-	    }
-
-	    if(!found)
+	    if(row.getChildAt(0) == null ||
+	       row.getTag() == null ||
+	       !rows.containsKey(row.getTag().toString()))
 		tableLayout.removeView(row);
+	    else
+		rows.put(row.getTag().toString(), row);
 	}
 
 	i = 0;
@@ -627,41 +783,12 @@ public class Settings extends AppCompatActivity
 	    if(listenerElement == null)
 		continue;
 
+	    String key = listenerKey(listenerElement);
 	    Switch switch1 = null;
 	    TableRow row = null;
-	    int count = tableLayout.getChildCount();
-
-	    for(int j = 0; j < count; j++)
-	    {
-		TableRow r = (TableRow) tableLayout.getChildAt(j);
-
-		if(r == null)
-		    continue;
 
-		Switch c = (Switch) r.getChildAt(0);
-
-		if(c == null)
-		    continue;
-
-		stringBuilder.delete(0, stringBuilder.length());
-		stringBuilder.append(listenerElement.m_localIpAddress);
-
-		if(listenerElement.m_ipVersion.equals("IPv6"))
-		    if(!listenerElement.m_localScopeId.isEmpty())
-		    {
-			stringBuilder.append("-");
-			stringBuilder.append(listenerElement.m_localScopeId);
-		    }
-
-		stringBuilder.append(":");
-		stringBuilder.append(listenerElement.m_localPort);
-
-		if(c.getText().toString().contains(stringBuilder.toString()))
-		{
-		    switch1 = c;
-		    break;
-		}
-	    }
+	    if(rows.get(key) != null)
+		switch1 = (Switch) rows.get(key).getChildAt(0);
 
 	    if(switch1 == null)
 	    {
@@ -672,6 +799,7 @@ public class Settings extends AppCompatActivity
 		row = new TableRow(Settings.this);
 		row.setId(listenerElement.m_oid);
 		row.setLayoutParams(layoutParams);
+		row.setTag(key);
 		switch1 = new Switch(Settings.this);
 		switch1.setLayoutDirection(LayoutDirection.RTL);
 		switch1.setOnCheckedChangeListener
@@ -688,10 +816,14 @@ public class Settings extends AppCompatActivity
 				 "listeners");
 			}
 		    });
+		switch1.setGravity(Gravity.CENTER_VERTICAL);
+		switch1.setLayoutParams
+		    (new TableRow.LayoutParams(0, LayoutParams.WRAP_CONTENT, 1));
+		switch1.setTextSize(CHECKBOX_TEXT_SIZE);
+		switch1.setWidth(CHECKBOX_WIDTH);
+		registerForContextMenu(switch1);
 	    }
 
-	    registerForContextMenu(switch1);
-
 	    if(listenerElement.m_status.equals("listening"))
 		switch1.setTextColor(Color.rgb(27, 94, 32)); // Dark Green
 	    else
@@ -792,16 +924,17 @@ public class Settings extends AppCompatActivity
 	    switch1.setChecked
 		(listenerElement.m_statusControl.toLowerCase().
 		 equals("listen"));
-	    switch1.setGravity(Gravity.CENTER_VERTICAL);
 	    switch1.setId(listenerElement.m_oid);
-	    switch1.setLayoutParams
-		(new TableRow.LayoutParams(0, LayoutParams.WRAP_CONTENT, 1));
 	    switch1.setTag
 		(listenerElement.m_localIpAddress + ":" +
 		 listenerElement.m_localPort);
-	    switch1.setText(stringBuilder);
-	    switch1.setTextSize(CHECKBOX_TEXT_SIZE);
-	    switch1.setWidth(CHECKBOX_WIDTH);
+
+	    /*
+	    ** Only modified text requires a new layout.
+	    */
+
+	    if(!switch1.getText().toString().equals(stringBuilder.toString()))
+		switch1.setText(stringBuilder);
 
 	    if(row != null)
 	    {
@@ -833,13 +966,19 @@ public class Settings extends AppCompatActivity
 	    return;
 	}
 
+	HashMap<String, TableRow> rows = new HashMap<> ();
 	StringBuilder stringBuilder = new StringBuilder();
 	int i = 0;
 
 	/*
-	** Remove table entries which do not exist in smokestack.db.
+	** Rows are keyed by their neighbors' addresses. Remove table
+	** entries which do not exist in smokestack.db.
 	*/
 
+	for(NeighborElement neighborElement : arrayList)
+	    if(neighborElement != null)
+		rows.put(neighborKey(neighborElement), null);
+
 	for(i = tableLayout.getChildCount() - 1; i >= 0; i--)
 	{
 	    TableRow row = (TableRow) tableLayout.getChildAt(i);
@@ -847,43 +986,12 @@ public class Settings extends AppCompatActivity
 	    if(row == null)
 		continue;
 
-	    TextView textView = (TextView) row.getChildAt(1);
-
-	    if(textView == null)
-	    {
-		tableLayout.removeView(row);
-		continue;
-	    }
-
-	    boolean found = false;
-
-	    for(NeighborElement neighborElement : arrayList)
-	    {
-		stringBuilder.delete(0, stringBuilder.length());
-		stringBuilder.append(neighborElement.m_remoteIpAddress);
-
-		if(neighborElement.m_ipVersion.equals("IPv6"))
-		    if(!neighborElement.m_remoteScopeId.isEmpty())
-		    {
-			stringBuilder.append("-");
-			stringBuilder.append(neighborElement.m_remoteScopeId);
-		    }
-
-		stringBuilder.append(":");
-		stringBuilder.append(neighborElement.m_remotePort);
-		stringBuilder.append(":");
-		stringBuilder.append(neighborElement.m_transport);
-
-		if(textView.getText().toString().
-		   contains(stringBuilder.toString()))
-		{
-		    found = true;
-		    break;
-		}
-	    }
-
-	    if(!found)
+	    if(row.getChildAt(1) == null ||
+	       row.getTag() == null ||
+	       !rows.containsKey(row.getTag().toString()))
 		tableLayout.removeView(row);
+	    else
+		rows.put(row.getTag().toString(), row);
 	}
 
 	Switch switch1 = (Switch) findViewById(R.id.neighbor_details);
@@ -896,43 +1004,12 @@ public class Settings extends AppCompatActivity
 		continue;
 
 	    Spinner spinner = null;
+	    String key = neighborKey(neighborElement);
 	    TableRow row = null;
 	    TextView textView = null;
-	    int count = tableLayout.getChildCount();
 
-	    for(int j = 0; j < count; j++)
-	    {
-		TableRow r = (TableRow) tableLayout.getChildAt(j);
-
-		if(r == null)
-		    continue;
-
-		TextView t = (TextView) r.getChildAt(1);
-
-		if(t == null)
-		    continue;
-
-		stringBuilder.delete(0, stringBuilder.length());
-		stringBuilder.append(neighborElement.m_remoteIpAddress);
-
-		if(neighborElement.m_ipVersion.equals("IPv6"))
-		    if(!neighborElement.m_remoteScopeId.isEmpty())
-		    {
-			stringBuilder.append("-");
-			stringBuilder.append(neighborElement.m_remoteScopeId);
-		    }
-
-		stringBuilder.append(":");
-		stringBuilder.append(neighborElement.m_remotePort);
-		stringBuilder.append(":");
-		stringBuilder.append(neighborElement.m_transport);
-
-		if(t.getText().toString().contains(stringBuilder.toString()))
-		{
-		    textView = t;
-		    break;
-		}
-	    }
+	    if(rows.get(key) != null)
+		textView = (TextView) rows.get(key).getChildAt(1);
 
 	    if(textView == null)
 	    {
@@ -942,6 +1019,7 @@ public class Settings extends AppCompatActivity
 		row = new TableRow(Settings.this);
 		row.setId(neighborElement.m_oid);
 		row.setLayoutParams(layoutParams);
+		row.setTag(key);
 		spinner = new Spinner(Settings.this);
 
 		ArrayAdapter<String> arrayAdapter = null;
@@ -1033,6 +1111,11 @@ public class Settings extends AppCompatActivity
 		    });
 
 		textView = new TextView(Settings.this);
+		textView.setGravity(Gravity.CENTER_VERTICAL);
+		textView.setLayoutParams
+		    (new TableRow.LayoutParams(0, LayoutParams.WRAP_CONTENT, 1));
+		textView.setTextSize(TEXTVIEW_TEXT_SIZE);
+		textView.setWidth(TEXTVIEW_WIDTH);
 	    }
 
 	    switch(neighborElement.m_status)
@@ -1153,6 +1236,10 @@ public class Settings extends AppCompatActivity
 	    stringBuilder.append("Queue Size: ");
 	    stringBuilder.append(neighborElement.m_queueSize);
 	    stringBuilder.append("\n");
+	    stringBuilder.append("Dropped: ");
+	    stringBuilder.append
+		(Kernel.getInstance().neighborDropped(neighborElement.m_oid));
+	    stringBuilder.append("\n");
 	    stringBuilder.append("Buffered: ");
 	    stringBuilder.append
 		(Miscellaneous.
@@ -1193,12 +1280,9 @@ public class Settings extends AppCompatActivity
 	    }
 
 	    stringBuilder.append(" Min.\n");
-	    textView.setGravity(Gravity.CENTER_VERTICAL);
-	    textView.setLayoutParams
-		(new TableRow.LayoutParams(0, LayoutParams.WRAP_CONTENT, 1));
-	    textView.setText(stringBuilder);
-	    textView.setTextSize(TEXTVIEW_TEXT_SIZE);
-	    textView.setWidth(TEXTVIEW_WIDTH);
+
+	    if(!textView.getText().toString().equals(stringBuilder.toString()))
+		textView.setText(stringBuilder);
 
 	    if(row != null)
 	    {
@@ -1216,7 +1300,7 @@ public class Settings extends AppCompatActivity
     private void populateOzoneAddresses()
     {
 	ArrayList<OzoneElement> arrayList =
-	    m_databaseHelper.readOzones(s_cryptography);
+	    m_databaseHelper.readOzones(s_cryptography, -1);
 	TableLayout tableLayout = (TableLayout) findViewById
 	    (R.id.ozones);
 
@@ -1258,17 +1342,109 @@ public class Settings extends AppCompatActivity
 	arrayList.clear();
     }
 
+    private void populateParticipantRow(TableRow row,
+					SipHashIdElement sipHashIdElement)
+    {
+	for(int j = 0; j < 4; j++)
+	{
+	    TextView textView = new TextView(Settings.this);
+
+	    textView.setId(sipHashIdElement.m_oid);
+
+	    switch(j)
+	    {
+	    case 0:
+		textView.setGravity(Gravity.CENTER_VERTICAL);
+		textView.setLayoutParams
+		    (new TableRow.LayoutParams(0,
+					       LayoutParams.MATCH_PARENT,
+					       1));
+		textView.setText(sipHashIdElement.m_name);
+		break;
+	    case 1:
+		if(sipHashIdElement.m_epksCompleted &&
+		   sipHashIdElement.m_keysSigned)
+		    textView.setCompoundDrawablesWithIntrinsicBounds
+			(R.drawable.keys_signed, 0, 0, 0);
+		else if(sipHashIdElement.m_epksCompleted)
+		    textView.setCompoundDrawablesWithIntrinsicBounds
+			(R.drawable.keys_not_signed, 0, 0, 0);
+		else
+		    textView.setCompoundDrawablesWithIntrinsicBounds
+			(R.drawable.warning, 0, 0, 0);
+
+		textView.setCompoundDrawablePadding(5);
+		textView.setGravity(Gravity.CENTER_VERTICAL);
+		textView.setLayoutParams
+		    (new TableRow.LayoutParams(0,
+					       LayoutParams.WRAP_CONTENT,
+					       1));
+		textView.setText(sipHashIdElement.m_sipHashId);
+		break;
+	    case 2:
+		textView.append
+		    (String.valueOf(sipHashIdElement.m_outMessages));
+		textView.append(" / ");
+		textView.append
+		    (String.valueOf(sipHashIdElement.m_inMessages));
+		textView.append(" / ");
+		textView.append
+		    (String.valueOf(sipHashIdElement.m_totalMessages));
+		textView.setGravity(Gravity.CENTER);
+		textView.setLayoutParams
+		    (new TableRow.LayoutParams(0,
+					       LayoutParams.MATCH_PARENT,
+					       1));
+		break;
+	    default:
+		textView.setGravity(Gravity.CENTER_VERTICAL);
+		textView.setLayoutParams
+		    (new TableRow.LayoutParams(0,
+					       LayoutParams.MATCH_PARENT,
+					       1));
+		textView.setText(sipHashIdElement.m_timestamp);
+		break;
+	    }
+
+	    if(j == 0 || j == 1)
+		textView.setTag(textView.getText());
+	    else
+		textView.setTag(sipHashIdElement.m_name);
+
+	    textView.setTextSize(TEXTVIEW_TEXT_SIZE);
+	    registerForContextMenu(textView);
+	    row.addView(textView);
+	}
+    }
+
     private void populateParticipants()
     {
 	ArrayList<SipHashIdElement> arrayList =
-	    m_databaseHelper.readSipHashIds(s_cryptography);
+	    m_databaseHelper.readSipHashIds(s_cryptography, -1);
 	TableLayout tableLayout = (TableLayout) findViewById
 	    (R.id.participants);
 
-	tableLayout.removeAllViews();
-
 	if(arrayList == null || arrayList.size() == 0)
+	{
+	    tableLayout.removeAllViews();
 	    return;
+	}
+
+	/*
+	** Rows are keyed by their participants' OIDs and are tagged
+	** with signatures of their contents. Only new or modified
+	** rows are rebuilt.
+	*/
+
+	HashMap<Integer, TableRow> rows = new HashMap<> ();
+
+	for(int j = 0; j < tableLayout.getChildCount(); j++)
+	{
+	    TableRow row = (TableRow) tableLayout.getChildAt(j);
+
+	    if(row != null && row.getChildAt(0) != null)
+		rows.put(row.getChildAt(0).getId(), row);
+	}
 
 	int i = 0;
 
@@ -1277,87 +1453,39 @@ public class Settings extends AppCompatActivity
 	    if(sipHashIdElement == null)
 		continue;
 
-	    TableRow row = new TableRow(Settings.this);
-	    TableRow.LayoutParams layoutParams = new
-		TableRow.LayoutParams(TableRow.LayoutParams.WRAP_CONTENT);
-
-	    row.setLayoutParams(layoutParams);
+	    String signature = participantSignature(sipHashIdElement);
+	    TableRow row = rows.remove(sipHashIdElement.m_oid);
 
-	    for(int j = 0; j < 4; j++)
+	    if(row == null)
 	    {
-		TextView textView = new TextView(Settings.this);
+		TableRow.LayoutParams layoutParams = new
+		    TableRow.LayoutParams(TableRow.LayoutParams.WRAP_CONTENT);
 
-		textView.setId(sipHashIdElement.m_oid);
+		row = new TableRow(Settings.this);
+		row.setLayoutParams(layoutParams);
+	    }
 
-		switch(j)
-		{
-                case 0:
-		    textView.setGravity(Gravity.CENTER_VERTICAL);
-		    textView.setLayoutParams
-			(new TableRow.LayoutParams(0,
-						   LayoutParams.MATCH_PARENT,
-						   1));
-                    textView.setText(sipHashIdElement.m_name);
-                    break;
-                case 1:
-                    if(sipHashIdElement.m_epksCompleted &&
-		       sipHashIdElement.m_keysSigned)
-                        textView.setCompoundDrawablesWithIntrinsicBounds
-			    (R.drawable.keys_signed, 0, 0, 0);
-                    else if(sipHashIdElement.m_epksCompleted)
-                        textView.setCompoundDrawablesWithIntrinsicBounds
-			    (R.drawable.keys_not_signed, 0, 0, 0);
-                    else
-                        textView.setCompoundDrawablesWithIntrinsicBounds
-			    (R.drawable.warning, 0, 0, 0);
-
-                    textView.setCompoundDrawablePadding(5);
-		    textView.setGravity(Gravity.CENTER_VERTICAL);
-		    textView.setLayoutParams
-			(new TableRow.LayoutParams(0,
-						   LayoutParams.WRAP_CONTENT,
-						   1));
-                    textView.setText(sipHashIdElement.m_sipHashId);
-                    break;
-                case 2:
-                    textView.append
-			(String.valueOf(sipHashIdElement.m_outMessages));
-                    textView.append(" / ");
-                    textView.append
-			(String.valueOf(sipHashIdElement.m_inMessages));
-                    textView.append(" / ");
-                    textView.append
-			(String.valueOf(sipHashIdElement.m_totalMessages));
-		    textView.setGravity(Gravity.CENTER);
-		    textView.setLayoutParams
-			(new TableRow.LayoutParams(0,
-						   LayoutParams.MATCH_PARENT,
-						   1));
-                    break;
-		default:
-		    textView.setGravity(Gravity.CENTER_VERTICAL);
-		    textView.setLayoutParams
-			(new TableRow.LayoutParams(0,
-						   LayoutParams.MATCH_PARENT,
-						   1));
-		    textView.setText(sipHashIdElement.m_timestamp);
-		    break;
-		}
+	    if(!signature.equals(row.getTag()))
+	    {
+		row.removeAllViews();
+		populateParticipantRow(row, sipHashIdElement);
+		row.setTag(signature);
+	    }
 
-		if(j == 0 || j == 1)
-		    textView.setTag(textView.getText());
-		else
-		    textView.setTag(sipHashIdElement.m_name);
+	    if(tableLayout.getChildAt(i) != row)
+	    {
+		if(row.getParent() != null)
+		    tableLayout.removeView(row);
 
-		textView.setTextSize(TEXTVIEW_TEXT_SIZE);
-		registerForContextMenu(textView);
-		row.addView(textView);
+		tableLayout.addView(row, i);
 	    }
 
-	    tableLayout.addView(row, i);
 	    i += 1;
 	}
 
+	for(TableRow row : rows.values())
+	    tableLayout.removeView(row);
+
 	arrayList.clear();
     }
 
@@ -2026,6 +2154,27 @@ public class Settings extends AppCompatActivity
 		}
 	    });
 
+	switch1 = (Switch) findViewById(R.id.listeners_rsa_certificates);
+	switch1.setOnCheckedChangeListener
+	    (new CompoundButton.OnCheckedChangeListener()
+	    {
+		@Override
+		public void onCheckedChanged
+		    (CompoundButton buttonView, boolean isChecked)
+		{
+		    /*
+		    ** Applies to listeners which are created afterwards.
+		    */
+
+		    if(isChecked)
+			m_databaseHelper.writeSetting
+			    (null, "listeners_key_type", "RSA");
+		    else
+			m_databaseHelper.writeSetting
+			    (null, "listeners_key_type", "EC");
+		}
+	    });
+
 	switch1 = (Switch) findViewById(R.id.automatic_refresh_neighbors);
 	switch1.setOnCheckedChangeListener
 	    (new CompoundButton.OnCheckedChangeListener()
@@ -2126,6 +2275,33 @@ public class Settings extends AppCompatActivity
 		    }
 		}
 
+		@Override
+		public void onNothingSelected(AdapterView<?> parent)
+		{
+		}
+	    });
+
+	spinner1 = (Spinner) findViewById(R.id.neighbors_queue_policy);
+	spinner1.setOnItemSelectedListener
+	    (new OnItemSelectedListener()
+	    {
+		@Override
+		public void onItemSelected(AdapterView<?> parent,
+					   View view,
+					   int position,
+					   long id)
+		{
+		    String policy = parent.getItemAtPosition(position).
+			toString();
+
+		    if(policy.equals(QueueLimits.getInstance().policy()))
+			return;
+
+		    m_databaseHelper.writeSetting
+			(null, "neighbors_queue_policy", policy);
+		    QueueLimits.getInstance().invalidate();
+		}
+
 		@Override
 		public void onNothingSelected(AdapterView<?> parent)
 		{
@@ -2169,6 +2345,9 @@ public class Settings extends AppCompatActivity
 		{
 		    try
 		    {
+			final ClientsSnapshot clientsSnapshot = Kernel.
+			    getInstance().refreshClientsSnapshot();
+
 			m_databaseHelper.cleanDanglingMessages();
 			m_databaseHelper.cleanDanglingOutboundQueued();
 			m_databaseHelper.cleanDanglingParticipants();
@@ -2193,13 +2372,21 @@ public class Settings extends AppCompatActivity
 				    (m_databaseHelper.cursorsOpened() +
 				     " Database Cursors Opened");
 				((TextView) findViewById(R.id.memory)).setText
-				    (memory + " MiB Consumed (JVM)");
+				    (memory +
+				     " MiB Consumed (JVM), " +
+				     BufferPool.getInstance().idleBytes() /
+				     1048576L +
+				     " MiB Pooled, " +
+				     Neighbor.droppedTotal() +
+				     " Message(s) Dropped");
 				((TextView) findViewById(R.id.uptime)).setText
 				    ("Uptime: " +
 				     (System.currentTimeMillis() -
 				      m_start) / 60000L +
 				     " Minute(s)");
 
+				m_listenersAdapter.setClientsSnapshot
+				    (clientsSnapshot);
 				m_listenersAdapter.notifyDataSetChanged();
 			    }
 			});
@@ -2231,10 +2418,7 @@ public class Settings extends AppCompatActivity
 		    try
 		    {
 			Settings.this.runOnUiThread
-			    (new
-			     PopulateListeners(m_databaseHelper.
-					       readListeners(s_cryptography,
-							     -1)));
+			    (new PopulateListeners(listenerElements()));
 		    }
 		    catch(Exception exception)
 		    {
@@ -2257,9 +2441,7 @@ public class Settings extends AppCompatActivity
 		    try
 		    {
 			Settings.this.runOnUiThread
-			    (new
-			     PopulateNeighbors(m_databaseHelper.
-					       readNeighbors(s_cryptography)));
+			    (new PopulateNeighbors(neighborElements()));
 		    }
 		    catch(Exception exception)
 		    {
@@ -2462,6 +2644,16 @@ public class Settings extends AppCompatActivity
 	    (Settings.this, android.R.layout.simple_spinner_item, array);
 	spinner1 = (Spinner) findViewById(R.id.iteration_count);
 	spinner1.setAdapter(arrayAdapter);
+	array = new String[]
+	{
+	    QueueLimits.DROP_OLDEST,
+	    QueueLimits.DROP_ECHO_FIRST,
+	    QueueLimits.DISCONNECT
+	};
+	arrayAdapter = new ArrayAdapter<>
+	    (Settings.this, android.R.layout.simple_spinner_item, array);
+	spinner1 = (Spinner) findViewById(R.id.neighbors_queue_policy);
+	spinner1.setAdapter(arrayAdapter);
 
         RadioGroup radioGroup1 = null;
 
@@ -2700,6 +2892,14 @@ public class Settings extends AppCompatActivity
 	else
 	    switch1.setChecked(false);
 
+	switch1 = (Switch) findViewById(R.id.listeners_rsa_certificates);
+
+	if(m_databaseHelper.
+	   readSetting(null, "listeners_key_type").equals("RSA"))
+	    switch1.setChecked(true);
+	else
+	    switch1.setChecked(false);
+
 	switch1 = (Switch) findViewById(R.id.neighbor_details);
 
 	if(m_databaseHelper.
@@ -2708,7 +2908,21 @@ public class Settings extends AppCompatActivity
 	else
 	    switch1.setChecked(false);
 
-	Spinner spinner1 = (Spinner) findViewById(R.id.iteration_count);
+	Spinner spinner1 = (Spinner) findViewById(R.id.neighbors_queue_policy);
+
+	try
+	{
+	    @SuppressWarnings("unchecked") ArrayAdapter<String>
+		arrayAdapter = (ArrayAdapter<String>) spinner1.getAdapter();
+
+	    spinner1.setSelection
+		(arrayAdapter.getPosition(QueueLimits.getInstance().policy()));
+	}
+	catch(Exception exception)
+	{
+	}
+
+	spinner1 = (Spinner) findViewById(R.id.iteration_count);
 
 	try
 	{
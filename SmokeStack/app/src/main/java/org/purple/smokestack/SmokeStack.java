@@ -29,6 +29,7 @@ package org.purple.smokestack;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.os.Build;
 
@@ -72,5 +73,22 @@ public class SmokeStack extends Application
 	catch(Exception exception)
 	{
 	}
+
+	BufferPool.getInstance().clear();
+	Cryptography.clearDerivedStreams();
+    }
+
+    @Override
+    public void onTrimMemory(int level)
+    {
+	super.onTrimMemory(level);
+
+	/*
+	** Hiding the interface does not indicate memory pressure.
+	*/
+
+	if(level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN &&
+	   level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+	    Cryptography.clearDerivedStreams();
     }
 }
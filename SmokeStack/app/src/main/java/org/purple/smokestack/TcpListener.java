@@ -27,9 +27,6 @@
 
 package org.purple.smokestack;
 
-import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.os.Build;
 import java.io.ByteArrayInputStream;
 import java.math.BigInteger;
@@ -75,8 +72,8 @@ public class TcpListener
     private AtomicBoolean m_isPrivateServer = null;
     private AtomicInteger m_oid = null;
     private ConcurrentHashMap<Integer, TcpNeighbor> m_neighbors = null;
-    private KeyStore m_keyStore = null;
     private SSLServerSocket m_socket = null;
+    private volatile KeyStore m_keyStore = null;
     private final ScheduledExecutorService m_acceptScheduler =
 	Executors.newSingleThreadScheduledExecutor();
     private final ScheduledExecutorService m_scheduler =
@@ -86,17 +83,29 @@ public class TcpListener
     private final AtomicBoolean m_listen = new AtomicBoolean(false);
     private final AtomicInteger m_neighborCounter = new AtomicInteger(0);
     private final AtomicLong m_startTime = new AtomicLong(System.nanoTime());
+    private final ConcurrentHashMap<Integer, String> m_neighborAddresses =
+	new ConcurrentHashMap<> ();
     private final Cryptography m_cryptography = Cryptography.getInstance();
     private final Database m_databaseHelper = Database.getInstance();
     private final Object m_socketMutex = new Object();
     private final String JCACONTENTSIGNER_ALGORITHM =
 	"SHA512WithRSA";
     private final StringBuilder m_error = new StringBuilder();
-    private final static String PKI_KEY_ALGORITHM = "RSA";
-    private final static int PKI_KEY_SIZE = 3072;
+    private final TokenBucket m_acceptBucket = new TokenBucket
+	(ACCEPTS_PER_SECOND, ACCEPT_BURST);
+    private final static ConnectivityMonitor s_connectivityMonitor =
+	ConnectivityMonitor.getInstance();
+    private final static String PKI_EC_SIGNATURE_ALGORITHM =
+	"SHA256WithECDSA";
+    private final static double ACCEPT_BURST = 16.0;
+    private final static double ACCEPTS_PER_SECOND = 8.0;
+    private final static int ACCEPT_BACKLOG = 128;
+    private final static int MAXIMUM_CLIENTS = 256;
+    private final static int MAXIMUM_CLIENTS_PER_ADDRESS = 8;
+    private final static int PKI_EC_KEY_SIZE = 256; // P-256
+    private final static int PKI_RSA_KEY_SIZE = 3072;
     private final static int SO_TIMEOUT = 5000; // 5 Seconds
     private final static long ACCEPT_INTERVAL = 100L; // Milliseconds
-    private final static long AWAIT_TERMINATION = 10L; // 10 Seconds
     private final static long ONE_YEAR = 24L * 60L * 60L * 365L * 1000L;
     private final static long TIMER_INTERVAL = 2500L; // 2.5 Seconds
     public final static String TLS_LEGACY[] = new String[] {"SSLv3",
@@ -123,72 +132,121 @@ public class TcpListener
     {
 	m_neighbors = new ConcurrentHashMap<> ();
 	m_oid = new AtomicInteger(oid);
-	prepareCertificate(certificate, privateKey, publicKey);
 	m_ipAddress = ipAddress;
 	m_ipPort = ipPort;
 	m_isPrivateServer = new AtomicBoolean(isPrivateServer);
 
 	/*
-	** Launch the schedulers.
+	** Prepare the key store on the status scheduler so that the
+	** caller is not delayed. The listener begins listening
+	** afterwards.
 	*/
 
-	m_acceptScheduler.scheduleAtFixedRate(new Runnable()
+	final byte certificateBytes[] = certificate;
+	final byte privateKeyBytes[] = privateKey;
+	final byte publicKeyBytes[] = publicKey;
+
+	m_scheduler.execute(new Runnable()
 	{
 	    @Override
 	    public void run()
 	    {
 		try
 		{
-		    saveStatistics();
+		    prepareCertificate
+			(certificateBytes, privateKeyBytes, publicKeyBytes);
 		}
 		catch(Exception exception)
 		{
 		}
+	    }
+	});
 
-		SSLSocket sslSocket = null;
+	/*
+	** Launch the schedulers.
+	*/
 
-		try
+	m_acceptScheduler.scheduleAtFixedRate(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		/*
+		** Drain the backlog until the listening socket times out
+		** or is closed.
+		*/
+
+		while(m_listen.get())
 		{
-		    if(!m_listen.get())
-			return;
+		    SSLServerSocket socket = null;
+		    SSLSocket sslSocket = null;
 
 		    synchronized(m_socketMutex)
 		    {
-			if(m_socket == null)
-			    return;
-
-			sslSocket = (SSLSocket) m_socket.accept();
+			socket = m_socket;
 		    }
 
-		    if(sslSocket == null)
+		    if(socket == null)
 			return;
 
-		    TcpNeighbor neighbor = null;
-		    int counter = m_neighborCounter.incrementAndGet();
-
-		    neighbor = new TcpNeighbor
-			(sslSocket, m_isPrivateServer.get(), -counter);
-
 		    try
 		    {
-			m_neighbors.put(counter, neighbor);
+			/*
+			** Wait for a token before accepting so that pending
+			** connections remain in the kernel's backlog.
+			** ACCEPT_BURST connections are admitted immediately
+			** and ACCEPTS_PER_SECOND thereafter.
+			*/
+
+			m_acceptBucket.acquire();
+			sslSocket = (SSLSocket) socket.accept();
 		    }
 		    catch(Exception exception)
 		    {
-			m_neighbors.remove(counter);
-			neighbor.abort();
-			neighbor = null;
+			return;
 		    }
-		}
-		catch(Exception exception1)
-		{
+
+		    if(sslSocket == null)
+			continue;
+
 		    try
 		    {
-			if(sslSocket != null)
+			String address = sslSocket.getInetAddress().
+			    getHostAddress();
+
+			if(!admit(address))
+			{
 			    sslSocket.close();
+			    continue;
+			}
+
+			TcpNeighbor neighbor = null;
+			int counter = m_neighborCounter.incrementAndGet();
+
+			neighbor = new TcpNeighbor
+			    (sslSocket, m_isPrivateServer.get(), -counter);
+
+			try
+			{
+			    m_neighborAddresses.put(counter, address);
+			    m_neighbors.put(counter, neighbor);
+			}
+			catch(Exception exception)
+			{
+			    removeNeighbor(counter);
+			    neighbor.abort();
+			    neighbor = null;
+			}
 		    }
-		    catch(Exception exception2)
+		    catch(Exception exception1)
 		    {
+			try
+			{
+			    sslSocket.close();
+			}
+			catch(Exception exception2)
+			{
+			}
 		    }
 		}
 	    }
@@ -227,19 +285,24 @@ public class TcpListener
 
 		    try
 		    {
+			ArrayList<TcpNeighbor> neighbors = new ArrayList<> ();
+
 			for(Integer key : m_neighbors.keySet())
 			{
 			    TcpNeighbor value = m_neighbors.get(key);
 
 			    if(value == null)
-				m_neighbors.remove(key);
+				removeNeighbor(key);
 			    else if(!value.connected())
 			    {
-				m_neighbors.remove(key);
-				value.abort();
-				value = null;
+				removeNeighbor(key);
+				value.shutdown();
+				neighbors.add(value);
 			    }
 			}
+
+			awaitTermination
+			    (neighbors, Neighbor.teardownDeadline());
 		    }
 		    catch(Exception exception)
 		    {
@@ -256,22 +319,81 @@ public class TcpListener
 
     protected boolean isNetworkConnected()
     {
+	return s_connectivityMonitor.connected();
+    }
+
+    private ArrayList<TcpNeighbor> close()
+    {
+	/*
+	** Close the server socket and detach the clients. The
+	** clients are closed but not awaited.
+	*/
+
+	ArrayList<TcpNeighbor> neighbors = new ArrayList<> ();
+
+	m_listen.set(false);
+
+	synchronized(m_socketMutex)
+	{
+	    try
+	    {
+		if(m_socket != null)
+		    m_socket.close();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+	    finally
+	    {
+		m_socket = null;
+	    }
+	}
+
 	try
 	{
-	    ConnectivityManager connectivityManager = (ConnectivityManager)
-		SmokeStack.getApplication().getSystemService
-		(Context.CONNECTIVITY_SERVICE);
-	    NetworkInfo networkInfo = connectivityManager.
-		getActiveNetworkInfo();
-
-	    return networkInfo.getState() ==
-		android.net.NetworkInfo.State.CONNECTED;
+	    for(Integer key : m_neighbors.keySet())
+	    {
+		TcpNeighbor value = removeNeighbor(key);
+
+		if(value != null)
+		{
+		    value.shutdown();
+		    neighbors.add(value);
+		}
+	    }
 	}
 	catch(Exception exception)
 	{
 	}
 
-	return false;
+	m_startTime.set(System.nanoTime());
+	return neighbors;
+    }
+
+    private TcpNeighbor removeNeighbor(Integer key)
+    {
+	m_neighborAddresses.remove(key);
+	return m_neighbors.remove(key);
+    }
+
+    private boolean admit(String address)
+    {
+	/*
+	** Refuse clients beyond the listener's capacity and beyond
+	** the per-address allowance.
+	*/
+
+	if(m_neighbors.size() >= MAXIMUM_CLIENTS)
+	    return false;
+
+	int count = 0;
+
+	for(String value : m_neighborAddresses.values())
+	    if(value.equals(address))
+		if(++count >= MAXIMUM_CLIENTS_PER_ADDRESS)
+		    return false;
+
+	return true;
     }
 
     private boolean listening()
@@ -307,50 +429,71 @@ public class TcpListener
 	       privateKey.length == 0 ||
 	       publicKey == null ||
 	       publicKey.length == 0)
-		keyPair = Cryptography.generatePrivatePublicKeyPair
-		    (PKI_KEY_ALGORITHM, PKI_KEY_SIZE);
+	    {
+		if(m_databaseHelper.readSetting(null, "listeners_key_type").
+		   equals("RSA"))
+		    keyPair = Cryptography.generatePrivatePublicKeyPair
+			("RSA", PKI_RSA_KEY_SIZE);
+		else
+		    keyPair = Cryptography.generatePrivatePublicKeyPair
+			("EC", PKI_EC_KEY_SIZE);
+	    }
 	    else
 	    {
-		keyPair = Cryptography.generatePrivatePublicKeyPair
-		    (PKI_KEY_ALGORITHM, privateKey, publicKey);
+		ByteArrayInputStream byteArrayInputStream = null;
 
-		if(keyPair != null)
+		try
 		{
-		    ByteArrayInputStream byteArrayInputStream = null;
+		    byteArrayInputStream = new
+			ByteArrayInputStream(certificateBytes);
 
-		    try
-		    {
-			byteArrayInputStream = new
-			    ByteArrayInputStream(certificateBytes);
+		    CertificateFactory certificateFactory =
+			CertificateFactory.getInstance("X.509");
+		    X509Certificate certificate = (X509Certificate)
+			certificateFactory.generateCertificate
+			(byteArrayInputStream);
+
+		    /*
+		    ** Stored key pairs may be RSA or EC.
+		    */
 
-			CertificateFactory certificateFactory =
-			    CertificateFactory.getInstance("X.509");
-			X509Certificate certificate = (X509Certificate)
-			    certificateFactory.generateCertificate
-			    (byteArrayInputStream);
+		    keyPair = Cryptography.generatePrivatePublicKeyPair
+			(certificate.getPublicKey().getAlgorithm(),
+			 privateKey,
+			 publicKey);
 
-			m_keyStore = KeyStore.getInstance
+		    if(keyPair != null)
+		    {
+			/*
+			** The key store is published only after it
+			** has been prepared.
+			*/
+
+			KeyStore keyStore = KeyStore.getInstance
 			    (KeyStore.getDefaultType());
-			m_keyStore.load(null, null);
-			m_keyStore.deleteEntry(m_ipAddress);
-			m_keyStore.setKeyEntry
+
+			keyStore.load(null, null);
+			keyStore.deleteEntry(m_ipAddress);
+			keyStore.setKeyEntry
 			    (m_ipAddress,
 			     keyPair.getPrivate(),
 			     null,
 			     new X509Certificate[] {certificate});
+			m_keyStore = keyStore;
 			return;
 		    }
-		    catch(Exception exception)
-		    {
-			setError("An error (" +
-				 exception.getMessage() +
-				 ") occurred while preparing the key pair.");
-		    }
-		    finally
-		    {
-			if(byteArrayInputStream != null)
-			    byteArrayInputStream.close();
-		    }
+		}
+		catch(Exception exception)
+		{
+		    m_keyStore = null;
+		    setError("An error (" +
+			     exception.getMessage() +
+			     ") occurred while preparing the key pair.");
+		}
+		finally
+		{
+		    if(byteArrayInputStream != null)
+			byteArrayInputStream.close();
 		}
 	    }
 	}
@@ -386,9 +529,14 @@ public class TcpListener
 		 name,
 		 subjectPublicKeyInfo);
 
-	    contentSigner = new JcaContentSignerBuilder
-		(JCACONTENTSIGNER_ALGORITHM).setProvider("BC").build
-		(keyPair.getPrivate());
+	    if(keyPair.getPublic().getAlgorithm().equals("RSA"))
+		contentSigner = new JcaContentSignerBuilder
+		    (JCACONTENTSIGNER_ALGORITHM).setProvider("BC").build
+		    (keyPair.getPrivate());
+	    else
+		contentSigner = new JcaContentSignerBuilder
+		    (PKI_EC_SIGNATURE_ALGORITHM).setProvider("BC").build
+		    (keyPair.getPrivate());
 
 	    X509Certificate certificate = null;
 	    X509CertificateHolder certificateHolder = v3CertificateBuilder.
@@ -396,13 +544,16 @@ public class TcpListener
 
 	    certificate = new JcaX509CertificateConverter().setProvider("BC").
 		getCertificate(certificateHolder);
-	    m_keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-	    m_keyStore.load(null, null);
-	    m_keyStore.deleteEntry(m_ipAddress);
-	    m_keyStore.setKeyEntry(m_ipAddress,
-				   keyPair.getPrivate(),
-				   null,
-				   new X509Certificate[] {certificate});
+
+	    KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+
+	    keyStore.load(null, null);
+	    keyStore.deleteEntry(m_ipAddress);
+	    keyStore.setKeyEntry(m_ipAddress,
+				 keyPair.getPrivate(),
+				 null,
+				 new X509Certificate[] {certificate});
+	    m_keyStore = keyStore;
 	    m_databaseHelper.writeListenerCertificateDetails
 		(m_cryptography,
 		 certificate.getEncoded(),
@@ -418,24 +569,25 @@ public class TcpListener
 	}
     }
 
-    private void saveStatistics()
+    private static void awaitTermination
+	(ArrayList<TcpNeighbor> neighbors, long deadline)
     {
-	String error = "";
-	String peersCount = String.valueOf(m_neighbors.size());
-	long uptime = System.nanoTime() - m_startTime.get();
+	if(neighbors != null)
+	    for(TcpNeighbor neighbor : neighbors)
+		neighbor.awaitTermination(deadline);
+    }
 
-	synchronized(m_error)
-	{
-	    error = m_error.toString();
-	}
+    private void saveStatistics()
+    {
+	ListenerElement listenerElement = statistics();
 
 	m_databaseHelper.saveListenerInformation
 	    (m_cryptography,
-	     error,
-	     peersCount,
-	     listening() ? "listening" : "disconnected",
-	     String.valueOf(uptime),
-	     String.valueOf(m_oid.get()));
+	     listenerElement.m_error,
+	     String.valueOf(listenerElement.m_peersCount),
+	     listenerElement.m_status,
+	     listenerElement.m_uptime,
+	     String.valueOf(listenerElement.m_oid));
     }
 
     private void setError(String error)
@@ -448,9 +600,9 @@ public class TcpListener
 	}
     }
 
-    public ArrayList<String> clientsAddresses()
+    public ArrayList<ClientElement> clients()
     {
-	ArrayList<String> arrayList = new ArrayList<> ();
+	ArrayList<ClientElement> arrayList = new ArrayList<> ();
 
 	try
 	{
@@ -459,7 +611,12 @@ public class TcpListener
 		TcpNeighbor value = m_neighbors.get(key);
 
 		if(value != null)
-		    arrayList.add(value.address());
+		{
+		    ClientElement clientElement = value.clientElement();
+
+		    clientElement.m_listenerOid = m_oid.get();
+		    arrayList.add(clientElement);
+		}
 	    }
 	}
 	catch(Exception exception)
@@ -469,6 +626,35 @@ public class TcpListener
 	return arrayList;
     }
 
+    public ArrayList<TcpNeighbor> shutdown()
+    {
+	/*
+	** Stop the schedulers without waiting. The detached clients
+	** are returned so that they may share a deadline.
+	*/
+
+	m_acceptScheduler.shutdown();
+	m_scheduler.shutdown();
+	return close();
+    }
+
+    public ListenerElement statistics()
+    {
+	ListenerElement listenerElement = new ListenerElement();
+
+	synchronized(m_error)
+	{
+	    listenerElement.m_error = m_error.toString();
+	}
+
+	listenerElement.m_oid = m_oid.get();
+	listenerElement.m_peersCount = m_neighbors.size();
+	listenerElement.m_status = listening() ? "listening" : "disconnected";
+	listenerElement.m_uptime = String.valueOf
+	    (System.nanoTime() - m_startTime.get());
+	return listenerElement;
+    }
+
     public int clientsCount()
     {
 	return m_neighbors.size();
@@ -481,93 +667,29 @@ public class TcpListener
 
     public void abort()
     {
-	disconnect();
-
-	synchronized(m_acceptScheduler)
-	{
-	    try
-	    {
-		m_acceptScheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-
-	    try
-	    {
-		if(!m_acceptScheduler.
-		   awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-		    m_acceptScheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
+	ArrayList<TcpNeighbor> neighbors = shutdown();
+	long deadline = Neighbor.teardownDeadline();
 
-	synchronized(m_scheduler)
-	{
-	    try
-	    {
-		m_scheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
+	awaitTermination(deadline);
+	awaitTermination(neighbors, deadline);
+    }
 
-	    try
-	    {
-		if(!m_scheduler.
-		   awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-		    m_scheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
+    public void awaitTermination(long deadline)
+    {
+	Neighbor.awaitTermination(m_acceptScheduler, deadline);
+	Neighbor.awaitTermination(m_scheduler, deadline);
     }
 
     public void disconnect()
     {
-	m_listen.set(false);
-
-	synchronized(m_socketMutex)
-	{
-	    try
-	    {
-		if(m_socket != null)
-		    m_socket.close();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	    finally
-	    {
-		m_socket = null;
-	    }
-	}
-
-	try
-	{
-	    for(Integer key : m_neighbors.keySet())
-	    {
-		TcpNeighbor value = m_neighbors.remove(key);
-
-		if(value != null)
-		    value.abort();
-
-		value = null;
-	    }
-	}
-	catch(Exception exception)
-	{
-	}
-
-	m_startTime.set(System.nanoTime());
+	awaitTermination(close(), Neighbor.teardownDeadline());
     }
 
     public void listen()
     {
-	if(listening())
+	KeyStore keyStore = m_keyStore;
+
+	if(listening() || keyStore == null)
 	    return;
 
 	m_listen.set(true);
@@ -584,7 +706,7 @@ public class TcpListener
 	    KeyManagerFactory keyManagerFactory = KeyManagerFactory.
 		getInstance("X509");
 
-	    keyManagerFactory.init(m_keyStore, null);
+	    keyManagerFactory.init(keyStore, null);
 	    sslContext.init(keyManagerFactory.getKeyManagers(),
 			    null,
 			    null);
@@ -598,7 +720,7 @@ public class TcpListener
 		m_socket.bind
 		    (new InetSocketAddress(InetAddress.getByName(m_ipAddress),
 					   Integer.parseInt(m_ipPort)),
-		     0);
+		     ACCEPT_BACKLOG);
 
 		if(Build.VERSION.SDK_INT >= 29) // Android 10
 		    m_socket.setEnabledProtocols(TLS_NEW);
@@ -622,8 +744,12 @@ public class TcpListener
 	}
     }
 
-    public void scheduleEchoSend(String message, int oid)
+    public void echoNeighbors(ArrayList<Neighbor> arrayList, int oid)
     {
+	/*
+	** Collects the clients which should relay an echo of oid.
+	*/
+
 	try
 	{
 	    for(Integer key : m_neighbors.keySet())
@@ -631,7 +757,7 @@ public class TcpListener
 		TcpNeighbor value = m_neighbors.get(key);
 
 		if(value != null && oid != value.getOid())
-		    value.scheduleEchoSend(message);
+		    arrayList.add(value);
 	    }
 	}
 	catch(Exception exception)
@@ -639,7 +765,7 @@ public class TcpListener
 	}
     }
 
-    public void scheduleSend(String message)
+    public void scheduleSend(MessageEnvelope message, int lane)
     {
 	try
 	{
@@ -648,7 +774,7 @@ public class TcpListener
 		TcpNeighbor value = m_neighbors.get(key);
 
 		if(value != null)
-		    value.scheduleSend(message);
+		    value.scheduleSend(message, lane);
 	    }
 	}
 	catch(Exception exception)
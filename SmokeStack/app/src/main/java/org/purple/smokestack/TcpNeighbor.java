@@ -29,13 +29,12 @@ package org.purple.smokestack;
 
 import android.os.Build;
 import android.util.Base64;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.net.ssl.HandshakeCompletedEvent;
@@ -51,13 +50,18 @@ public class TcpNeighbor extends Neighbor
     private AtomicBoolean m_isValidCertificate = null;
     private InetSocketAddress m_proxyInetSocketAddress = null;
     private SSLSocket m_socket = null;
-    private ScheduledExecutorService m_requestAuthenticationScheduler = null;
     private String m_protocols[] = null;
     private String m_proxyIpAddress = "";
     private String m_proxyType = "";
+    private SSLContext m_sslContext = null;
+    private TimerWheel.Timeout m_requestAuthenticationTimeout = null;
     private TrustManager m_trustManagers[] = null;
+    private final AtomicBoolean m_serverCertificateChecked =
+	new AtomicBoolean(false);
     private final static int CONNECTION_TIMEOUT = 10000; // 10 Seconds
     private final static int HANDSHAKE_TIMEOUT = 10000; // 10 Seconds
+    private final static int SESSION_CACHE_SIZE = 4;
+    private final static int SESSION_TIMEOUT = 86400; // 24 Hours
     private final static long REQUEST_AUTHENTICATION_INTERVAL =
 	10000L; // 10 Seconds
     private int m_proxyPort = -1;
@@ -84,6 +88,62 @@ public class TcpNeighbor extends Neighbor
 	}
     }
 
+    private void checkServerCertificate(X509Certificate chain[],
+					String authType)
+    {
+	m_serverCertificateChecked.set(true);
+
+	if(authType == null || authType.length() == 0)
+	    m_isValidCertificate.set(false);
+	else if(chain == null || chain.length == 0)
+	    m_isValidCertificate.set(false);
+	else
+	{
+	    try
+	    {
+		chain[0].checkValidity();
+
+		byte bytes[] = m_databaseHelper.
+		    neighborRemoteCertificate
+		    (m_cryptography, m_oid.get());
+
+		if(bytes == null || bytes.length == 0)
+		{
+		    m_databaseHelper.neighborRecordCertificate
+			(m_cryptography,
+			 String.valueOf(m_oid.get()),
+			 chain[0].getEncoded());
+		    m_isValidCertificate.set(true);
+		}
+		else if(!Cryptography.memcmp(bytes,
+					     chain[0].getEncoded()))
+		{
+		    setError("The stored server's " +
+			     "certificate does not match the " +
+			     "certificate that was provided by " +
+			     "the server.");
+		    m_isValidCertificate.set(false);
+		}
+		else
+		    m_isValidCertificate.set(true);
+	    }
+	    catch(Exception exception)
+	    {
+		setError("The server's certificate has expired.");
+		m_isValidCertificate.set(false);
+	    }
+	}
+
+	if(!m_isValidCertificate.get())
+	{
+	    disconnect();
+
+	    if(m_error.length() == 0)
+		m_error.append
+		    ("A generic certificate error occurred.");
+	}
+    }
+
     protected String getLocalIp()
     {
 	try
@@ -152,7 +212,7 @@ public class TcpNeighbor extends Neighbor
 	}
     }
 
-    protected boolean send(String message)
+    protected boolean send(MessageEnvelope message)
     {
 	if(!connected() || message == null || message.isEmpty())
 	    return false;
@@ -164,7 +224,7 @@ public class TcpNeighbor extends Neighbor
 		    if(!message.contains("type=0097a&content="))
 			return false;
 
-	    m_socket.getOutputStream().write(message.getBytes());
+	    m_socket.getOutputStream().write(message.bytes());
 	    Kernel.writeCongestionDigest(message);
 	    m_bytesWritten.getAndAdd(message.length());
 	}
@@ -209,7 +269,7 @@ public class TcpNeighbor extends Neighbor
     protected void disconnect()
     {
 	super.disconnect();
-	m_databaseHelper.deleteRoutingEntry(m_uuid.toString());
+	Kernel.getInstance().deleteRoutingEntry(m_uuid.toString());
 
 	try
 	{
@@ -233,6 +293,20 @@ public class TcpNeighbor extends Neighbor
 	}
     }
 
+    protected void shutdown()
+    {
+	disconnect();
+
+	if(m_requestAuthenticationTimeout != null)
+	    m_requestAuthenticationTimeout.cancel();
+
+	super.shutdown();
+	m_handshakeCompleted.set(false);
+
+	if(m_oid.get() >= 0)
+	    m_isValidCertificate.set(false);
+    }
+
     public TcpNeighbor(SSLSocket socket, boolean isPrivateServer, int oid)
     {
 	/*
@@ -260,7 +334,8 @@ public class TcpNeighbor extends Neighbor
 				prepareMRandom();
 				scheduleSend
 				    (Messages.
-				     requestAuthentication(m_randomBuffer));
+				     requestAuthentication(m_randomBuffer),
+				     LANE_CONTROL);
 
 				synchronized(m_mutex)
 				{
@@ -283,34 +358,21 @@ public class TcpNeighbor extends Neighbor
 	*/
 
 	if(isPrivateServer)
-	{
-	    m_requestAuthenticationScheduler = Executors.
-		newSingleThreadScheduledExecutor();
-	    m_requestAuthenticationScheduler.scheduleAtFixedRate(new Runnable()
+	    m_requestAuthenticationTimeout = TimerWheel.getInstance().schedule
+		(new Runnable()
 	    {
 		@Override
 		public void run()
 		{
 		    try
 		    {
-			if(!connected() && !m_disconnected.get())
-			    synchronized(m_mutex)
-			    {
-				try
-				{
-				    m_mutex.wait(WAIT_TIMEOUT);
-				}
-				catch(Exception exception)
-				{
-				}
-			    }
-
 			if(connected() && !m_remoteUserAuthenticated.get())
 			{
 			    prepareMRandom();
 			    scheduleSend
 				(Messages.
-				 requestAuthentication(m_randomBuffer));
+				 requestAuthentication(m_randomBuffer),
+				 LANE_CONTROL);
 			}
 		    }
 		    catch(Exception exception)
@@ -318,9 +380,7 @@ public class TcpNeighbor extends Neighbor
 		    }
 		}
 	    }, REQUEST_AUTHENTICATION_INTERVAL,
-		REQUEST_AUTHENTICATION_INTERVAL,
-		TimeUnit.MILLISECONDS);
-	}
+		REQUEST_AUTHENTICATION_INTERVAL);
 
 	m_readSocketScheduler.scheduleAtFixedRate(new Runnable()
 	{
@@ -362,18 +422,50 @@ public class TcpNeighbor extends Neighbor
 
 			m_socket.setSoTimeout(SO_TIMEOUT);
 
-		    byte bytes[] = new byte[BYTES_PER_READ];
+		    String string = null;
+		    byte bytes[] = null;
 		    int i = 0;
 
 		    try
 		    {
-			i = m_socket.getInputStream().read(bytes);
+			/*
+			** SO_TIMEOUT is zero. Block without a pooled buffer
+			** so that idle connections do not retain buffers.
+			*/
+
+			InputStream inputStream = m_socket.getInputStream();
+			int b = inputStream.read();
+
+			if(b < 0)
+			    i = -1;
+			else
+			{
+			    int available = Math.min
+				(BYTES_PER_READ - 1,
+				 Math.max(0, inputStream.available()));
+
+			    bytes = BufferPool.getInstance().acquire
+				(available + 1);
+			    bytes[0] = (byte) b;
+			    i = 1;
+
+			    if(available > 0)
+				i += Math.max
+				    (0, inputStream.read(bytes, 1, available));
+
+			    if(m_stringBuffer.length() < MAXIMUM_BYTES)
+				string = new String(bytes, 0, i);
+			}
 		    }
 		    catch(Exception exception)
 		    {
 			i = -1;
 			m_error = true;
 		    }
+		    finally
+		    {
+			BufferPool.getInstance().release(bytes);
+		    }
 
 		    long bytesRead = 0L;
 
@@ -393,11 +485,11 @@ public class TcpNeighbor extends Neighbor
 			return;
 
 		    m_bytesRead.getAndAdd(bytesRead);
+		    m_lastSuccessfulRead.set(System.nanoTime());
 		    m_lastTimeRead.set(System.nanoTime());
 
-		    if(m_stringBuffer.length() < MAXIMUM_BYTES)
-			m_stringBuffer.append
-			    (new String(bytes, 0, (int) bytesRead));
+		    if(string != null)
+			m_stringBuffer.append(string);
 
 		    synchronized(m_parsingSchedulerObject)
 		    {
@@ -502,18 +594,50 @@ public class TcpNeighbor extends Neighbor
 
 			m_socket.setSoTimeout(SO_TIMEOUT);
 
-		    byte bytes[] = new byte[BYTES_PER_READ];
+		    String string = null;
+		    byte bytes[] = null;
 		    int i = 0;
 
 		    try
 		    {
-			i = m_socket.getInputStream().read(bytes);
+			/*
+			** SO_TIMEOUT is zero. Block without a pooled buffer
+			** so that idle connections do not retain buffers.
+			*/
+
+			InputStream inputStream = m_socket.getInputStream();
+			int b = inputStream.read();
+
+			if(b < 0)
+			    i = -1;
+			else
+			{
+			    int available = Math.min
+				(BYTES_PER_READ - 1,
+				 Math.max(0, inputStream.available()));
+
+			    bytes = BufferPool.getInstance().acquire
+				(available + 1);
+			    bytes[0] = (byte) b;
+			    i = 1;
+
+			    if(available > 0)
+				i += Math.max
+				    (0, inputStream.read(bytes, 1, available));
+
+			    if(m_stringBuffer.length() < MAXIMUM_BYTES)
+				string = new String(bytes, 0, i);
+			}
 		    }
 		    catch(Exception exception)
 		    {
 			i = -1;
 			m_error = true;
 		    }
+		    finally
+		    {
+			BufferPool.getInstance().release(bytes);
+		    }
 
 		    long bytesRead = 0L;
 
@@ -533,11 +657,11 @@ public class TcpNeighbor extends Neighbor
 			return;
 
 		    m_bytesRead.getAndAdd(bytesRead);
+		    m_lastSuccessfulRead.set(System.nanoTime());
 		    m_lastTimeRead.set(System.nanoTime());
 
-		    if(m_stringBuffer.length() < MAXIMUM_BYTES)
-			m_stringBuffer.append
-			    (new String(bytes, 0, (int) bytesRead));
+		    if(string != null)
+			m_stringBuffer.append(string);
 
 		    synchronized(m_parsingSchedulerObject)
 		    {
@@ -573,111 +697,36 @@ public class TcpNeighbor extends Neighbor
 		public void checkServerTrusted
 		    (X509Certificate chain[], String authType)
 		{
-		    if(authType == null || authType.length() == 0)
-			m_isValidCertificate.set(false);
-		    else if(chain == null || chain.length == 0)
-			m_isValidCertificate.set(false);
-		    else
-		    {
-			try
-			{
-			    chain[0].checkValidity();
-
-			    byte bytes[] = m_databaseHelper.
-				neighborRemoteCertificate
-				(m_cryptography, m_oid.get());
-
-			    if(bytes == null || bytes.length == 0)
-			    {
-				m_databaseHelper.neighborRecordCertificate
-				    (m_cryptography,
-				     String.valueOf(m_oid.get()),
-				     chain[0].getEncoded());
-				m_isValidCertificate.set(true);
-			    }
-			    else if(!Cryptography.memcmp(bytes,
-							 chain[0].getEncoded()))
-			    {
-				setError("The stored server's " +
-					 "certificate does not match the " +
-					 "certificate that was provided by " +
-					 "the server.");
-				m_isValidCertificate.set(false);
-			    }
-			    else
-				m_isValidCertificate.set(true);
-			}
-			catch(Exception exception)
-			{
-			    setError("The server's certificate has expired.");
-			    m_isValidCertificate.set(false);
-			}
-		    }
-
-		    if(!m_isValidCertificate.get())
-		    {
-			disconnect();
-
-			if(m_error.length() == 0)
-			    m_error.append
-				("A generic certificate error occurred.");
-		    }
+		    checkServerCertificate(chain, authType);
 		}
 	    }
 	};
     }
 
-    public void abort()
+    private SSLContext sslContext() throws Exception
     {
-	disconnect();
-	super.abort();
-	m_handshakeCompleted.set(false);
-
-	if(m_oid.get() >= 0)
-	    m_isValidCertificate.set(false);
-
-	if(m_requestAuthenticationScheduler != null)
-	    synchronized(m_requestAuthenticationScheduler)
-	    {
-		try
-		{
-		    m_requestAuthenticationScheduler.shutdown();
-		}
-		catch(Exception exception)
-		{
-		}
+	/*
+	** The context is retained so that reconnections may resume
+	** earlier sessions.
+	*/
 
-		try
-		{
-		    if(!m_requestAuthenticationScheduler.
-		       awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-			m_requestAuthenticationScheduler.shutdownNow();
-		}
-		catch(Exception exception)
-		{
-		}
-	    }
+	if(m_sslContext != null)
+	    return m_sslContext;
 
-	synchronized(m_readSocketScheduler)
-	{
-	    try
-	    {
-		m_readSocketScheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
+	SSLContext sslContext = null;
 
-	    try
-	    {
-		if(!m_readSocketScheduler.
-		   awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-		    m_readSocketScheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
+	if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+	    sslContext = SSLContext.getInstance("SSL");
+	else
+	    sslContext = SSLContext.getInstance("TLS");
+
+	sslContext.init(null, m_trustManagers, new SecureRandom());
+	sslContext.getClientSessionContext().setSessionCacheSize
+	    (SESSION_CACHE_SIZE);
+	sslContext.getClientSessionContext().setSessionTimeout
+	    (SESSION_TIMEOUT);
+	m_sslContext = sslContext;
+	return m_sslContext;
     }
 
     public void connect()
@@ -695,17 +744,11 @@ public class TcpNeighbor extends Neighbor
 	    m_lastParsed.set(System.currentTimeMillis());
 	    m_lastTimeRead.set(System.nanoTime());
 
+	    m_serverCertificateChecked.set(false);
+
 	    InetSocketAddress inetSocketAddress =
 		new InetSocketAddress(m_ipAddress, Integer.parseInt(m_ipPort));
-	    SSLContext sslContext = null;
-
-	    if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
-		sslContext = SSLContext.getInstance("SSL");
-	    else
-		sslContext = SSLContext.getInstance("TLS");
-
-	    sslContext.init
-		(null, m_trustManagers, new SecureRandom());
+	    SSLContext sslContext = sslContext();
 
 	    if(m_proxyInetSocketAddress == null)
 	    {
@@ -740,6 +783,31 @@ public class TcpNeighbor extends Neighbor
 		    public void handshakeCompleted
 			(HandshakeCompletedEvent event)
 		    {
+			/*
+			** A resumed session bypasses checkServerTrusted().
+			** Verify the session's certificate instead.
+			*/
+
+			if(!m_serverCertificateChecked.get())
+			{
+			    try
+			    {
+				checkServerCertificate
+				    (new X509Certificate[]
+				     {(X509Certificate) event.
+				      getPeerCertificates()[0]},
+				     event.getCipherSuite());
+			    }
+			    catch(Exception exception)
+			    {
+				m_isValidCertificate.set(false);
+				disconnect();
+			    }
+
+			    if(!m_isValidCertificate.get())
+				return;
+			}
+
 			m_disconnected.set(false);
 			m_handshakeCompleted.set(true);
 
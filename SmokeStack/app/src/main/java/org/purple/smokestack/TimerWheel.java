@@ -0,0 +1,190 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+** A hashed timer wheel. Scheduling and cancelling a timeout are
+** constant-time operations and all of the timeouts expire on a
+** single thread. Tasks must not block.
+*/
+
+public class TimerWheel
+{
+    public static class Timeout
+    {
+	private Runnable m_task = null;
+	private long m_delay = 0L;
+	private long m_period = 0L;
+	private long m_rounds = 0L;
+	private volatile boolean m_cancelled = false;
+
+	private Timeout(Runnable task, long delay, long period)
+	{
+	    m_delay = delay;
+	    m_period = period;
+	    m_task = task;
+	}
+
+	public boolean cancelled()
+	{
+	    return m_cancelled;
+	}
+
+	public void cancel()
+	{
+	    m_cancelled = true;
+	}
+    }
+
+    private long m_tick = 0L;
+    private final ArrayList<LinkedList<Timeout>> m_buckets =
+	new ArrayList<> ();
+    private final ConcurrentLinkedQueue<Timeout> m_pending =
+	new ConcurrentLinkedQueue<> ();
+    private final ScheduledExecutorService m_scheduler =
+	Executors.newSingleThreadScheduledExecutor();
+    private final static int WHEEL_SIZE = 512; // Power of two.
+    private final static long TICK = 100L; // Milliseconds
+    private static TimerWheel s_instance = null;
+
+    private TimerWheel()
+    {
+	for(int i = 0; i < WHEEL_SIZE; i++)
+	    m_buckets.add(new LinkedList<Timeout> ());
+
+	m_scheduler.scheduleAtFixedRate(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		try
+		{
+		    tick();
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	}, TICK, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    private void place(Timeout timeout, long delay)
+    {
+	long ticks = Math.max(1L, (delay + TICK - 1L) / TICK);
+
+	timeout.m_rounds = (ticks - 1L) / WHEEL_SIZE;
+	m_buckets.get((int) ((m_tick + ticks) & (WHEEL_SIZE - 1))).
+	    add(timeout);
+    }
+
+    private void tick()
+    {
+	/*
+	** Only the timer thread accesses the buckets.
+	*/
+
+	Timeout timeout = null;
+
+	while((timeout = m_pending.poll()) != null)
+	    place(timeout, timeout.m_delay);
+
+	m_tick += 1L;
+
+	Iterator<Timeout> iterator = m_buckets.get
+	    ((int) (m_tick & (WHEEL_SIZE - 1))).iterator();
+	ArrayList<Timeout> expired = new ArrayList<> ();
+
+	while(iterator.hasNext())
+	{
+	    timeout = iterator.next();
+
+	    if(timeout.m_cancelled)
+		iterator.remove();
+	    else if(timeout.m_rounds > 0L)
+		timeout.m_rounds -= 1L;
+	    else
+	    {
+		expired.add(timeout);
+		iterator.remove();
+	    }
+	}
+
+	for(Timeout value : expired)
+	{
+	    try
+	    {
+		value.m_task.run();
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+
+	    if(!value.m_cancelled && value.m_period > 0L)
+		place(value, value.m_period);
+	}
+    }
+
+    public Timeout schedule(Runnable task, long delay)
+    {
+	return schedule(task, delay, 0L);
+    }
+
+    public Timeout schedule(Runnable task, long delay, long period)
+    {
+	/*
+	** The delay and the period are in milliseconds. A positive
+	** period repeats the task.
+	*/
+
+	if(task == null)
+	    return null;
+
+	Timeout timeout = new Timeout
+	    (task, Math.max(0L, delay), Math.max(0L, period));
+
+	m_pending.add(timeout);
+	return timeout;
+    }
+
+    public static synchronized TimerWheel getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new TimerWheel();
+
+	return s_instance;
+    }
+}
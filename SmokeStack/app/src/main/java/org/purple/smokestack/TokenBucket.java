@@ -0,0 +1,93 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+public class TokenBucket
+{
+    private double m_tokens = 0.0;
+    private long m_lastRefill = 0L;
+    private final double m_burst;
+    private final double m_rate; // Tokens per second.
+
+    public TokenBucket(double rate, double burst)
+    {
+	m_burst = Math.max(1.0, burst);
+	m_lastRefill = System.nanoTime();
+	m_rate = Math.max(0.0, rate);
+	m_tokens = m_burst;
+    }
+
+    private void refill()
+    {
+	long current = System.nanoTime();
+
+	m_tokens = Math.min
+	    (m_burst, m_tokens + m_rate * (current - m_lastRefill) / 1.0E9);
+	m_lastRefill = current;
+    }
+
+    public synchronized boolean consume()
+    {
+	refill();
+
+	if(m_tokens >= 1.0)
+	{
+	    m_tokens -= 1.0;
+	    return true;
+	}
+
+	return false;
+    }
+
+    public synchronized long timeUntilNextToken()
+    {
+	/*
+	** Milliseconds. Long.MAX_VALUE if the bucket is never refilled.
+	*/
+
+	refill();
+
+	if(m_tokens >= 1.0)
+	    return 0L;
+	else if(m_rate <= 0.0)
+	    return Long.MAX_VALUE;
+
+	return (long) Math.ceil(1000.0 * (1.0 - m_tokens) / m_rate);
+    }
+
+    public void acquire() throws InterruptedException
+    {
+	/*
+	** Blocks until a token is consumed.
+	*/
+
+	while(!consume())
+	    Thread.sleep(Math.max(1L, timeUntilNextToken()));
+    }
+}
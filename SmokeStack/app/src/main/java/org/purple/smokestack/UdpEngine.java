@@ -0,0 +1,263 @@
+/*
+** Copyright (c) Alexis Megas.
+** All rights reserved.
+**
+** Redistribution and use in source and binary forms, with or without
+** modification, are permitted provided that the following conditions
+** are met:
+** 1. Redistributions of source code must retain the above copyright
+**    notice, this list of conditions and the following disclaimer.
+** 2. Redistributions in binary form must reproduce the above copyright
+**    notice, this list of conditions and the following disclaimer in the
+**    documentation and/or other materials provided with the distribution.
+** 3. The name of the author may not be used to endorse or promote products
+**    derived from SmokeStack without specific prior written permission.
+**
+** SMOKESTACK IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+** IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+** OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+** IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+** INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+** NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+** DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+** THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+** (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package org.purple.smokestack;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UdpEngine
+{
+    private static class Registration
+    {
+	public DatagramChannel m_channel = null;
+	public Neighbor m_neighbor = null;
+
+	public Registration(DatagramChannel channel, Neighbor neighbor)
+	{
+	    m_channel = channel;
+	    m_neighbor = neighbor;
+	}
+    }
+
+    private Selector m_selector = null;
+    private final AtomicLong m_datagramsReceived = new AtomicLong(0L);
+    private final AtomicLong m_wakeups = new AtomicLong(0L);
+    private final ConcurrentLinkedQueue<DatagramChannel> m_writeRequests =
+	new ConcurrentLinkedQueue<> ();
+    private final ConcurrentLinkedQueue<Registration> m_registrations =
+	new ConcurrentLinkedQueue<> ();
+    private final ScheduledExecutorService m_scheduler =
+	Executors.newSingleThreadScheduledExecutor();
+    private final static int MAXIMUM_DATAGRAMS_PER_CHANNEL = 256;
+    private final static long SELECT_INTERVAL = 1L; // 1 Millisecond
+    private final static long SELECT_TIMEOUT = 1000L; // 1 Second
+    private static UdpEngine s_instance = null;
+
+    private UdpEngine()
+    {
+	try
+	{
+	    m_selector = Selector.open();
+	}
+	catch(Exception exception)
+	{
+	    m_selector = null;
+	}
+
+	m_scheduler.scheduleAtFixedRate(new Runnable()
+	{
+	    @Override
+	    public void run()
+	    {
+		try
+		{
+		    select();
+		}
+		catch(Exception exception)
+		{
+		}
+	    }
+	}, 0L, SELECT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void select() throws Exception
+    {
+	if(m_selector == null)
+	    return;
+
+	Registration registration = null;
+
+	while((registration = m_registrations.poll()) != null)
+	    try
+	    {
+		if(registration.m_channel.isOpen())
+		    registration.m_channel.register
+			(m_selector,
+			 SelectionKey.OP_READ,
+			 registration.m_neighbor);
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+
+	/*
+	** Full channels are selected for writing until they drain.
+	*/
+
+	DatagramChannel full = null;
+
+	while((full = m_writeRequests.poll()) != null)
+	    try
+	    {
+		SelectionKey selectionKey = full.keyFor(m_selector);
+
+		if(selectionKey != null && selectionKey.isValid())
+		    selectionKey.interestOps
+			(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+	    }
+	    catch(Exception exception)
+	    {
+	    }
+
+	if(m_selector.select(SELECT_TIMEOUT) == 0)
+	    return;
+
+	m_wakeups.getAndIncrement();
+
+	/*
+	** Drain every readable channel into a single pooled buffer.
+	** A channel may deliver at most MAXIMUM_DATAGRAMS_PER_CHANNEL
+	** datagrams per wakeup so that a busy peer cannot starve others.
+	*/
+
+	byte bytes[] = BufferPool.getInstance().acquire
+	    (Neighbor.BYTES_PER_DATAGRAM_READ);
+	ByteBuffer byteBuffer = ByteBuffer.wrap
+	    (bytes, 0, Neighbor.BYTES_PER_DATAGRAM_READ);
+
+	try
+	{
+	    Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+
+	    while(it.hasNext())
+	    {
+		SelectionKey selectionKey = it.next();
+
+		it.remove();
+
+		if(!selectionKey.isValid())
+		    continue;
+
+		Neighbor neighbor = (Neighbor) selectionKey.attachment();
+
+		if(selectionKey.isWritable())
+		{
+		    selectionKey.interestOps
+			(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+		    neighbor.datagramWritable();
+		}
+
+		if(!selectionKey.isReadable())
+		    continue;
+
+		DatagramChannel channel =
+		    (DatagramChannel) selectionKey.channel();
+		int count = 0;
+
+		try
+		{
+		    while(count < MAXIMUM_DATAGRAMS_PER_CHANNEL)
+		    {
+			byteBuffer.clear();
+
+			if(channel.receive(byteBuffer) == null)
+			    break;
+
+			count += 1;
+			neighbor.datagramReceived(bytes, byteBuffer.position());
+		    }
+		}
+		catch(Exception exception)
+		{
+		    selectionKey.cancel();
+		    neighbor.datagramError();
+		}
+
+		if(count > 0)
+		{
+		    m_datagramsReceived.getAndAdd(count);
+
+		    synchronized(neighbor.m_parsingSchedulerObject)
+		    {
+			neighbor.m_parsingSchedulerObject.notify();
+		    }
+		}
+	    }
+	}
+	finally
+	{
+	    BufferPool.getInstance().release(bytes);
+	}
+    }
+
+    public boolean register(DatagramChannel channel, Neighbor neighbor)
+    {
+	if(channel == null || m_selector == null || neighbor == null)
+	    return false;
+
+	try
+	{
+	    channel.configureBlocking(false);
+	}
+	catch(Exception exception)
+	{
+	    return false;
+	}
+
+	m_registrations.offer(new Registration(channel, neighbor));
+	m_selector.wakeup();
+	return true;
+    }
+
+    public boolean requestWritable(DatagramChannel channel)
+    {
+	if(channel == null || m_selector == null)
+	    return false;
+
+	m_writeRequests.offer(channel);
+	m_selector.wakeup();
+	return true;
+    }
+
+    public long datagramsReceived()
+    {
+	return m_datagramsReceived.get();
+    }
+
+    public long wakeups()
+    {
+	return m_wakeups.get();
+    }
+
+    public static synchronized UdpEngine getInstance()
+    {
+	if(s_instance == null)
+	    s_instance = new UdpEngine();
+
+	return s_instance;
+    }
+}
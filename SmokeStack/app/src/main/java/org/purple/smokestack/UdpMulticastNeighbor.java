@@ -27,17 +27,100 @@
 
 package org.purple.smokestack;
 
-import java.io.ByteArrayOutputStream;
+import android.os.Build;
 import java.net.DatagramPacket;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
 import java.util.concurrent.TimeUnit;
 
 public class UdpMulticastNeighbor extends Neighbor
 {
+    private DatagramChannel m_channel = null;
+    private MembershipKey m_membershipKey = null;
     private MulticastSocket m_socket = null;
+    private final String m_scopeId;
     private final static int TTL = 255;
 
+    private NetworkInterface multicastInterface() throws Exception
+    {
+	/*
+	** The neighbor's scope ID may name the interface or provide
+	** its index. Otherwise, the default network's interface is used.
+	*/
+
+	NetworkInterface networkInterface = null;
+	String scopeId = m_scopeId.trim();
+
+	if(!scopeId.isEmpty())
+	{
+	    networkInterface = NetworkInterface.getByName(scopeId);
+
+	    if(networkInterface == null && scopeId.matches("\\d+"))
+		networkInterface = NetworkInterface.getByIndex
+		    (Integer.parseInt(scopeId));
+	}
+	else
+	{
+	    String name = ConnectivityMonitor.getInstance().
+		activeInterfaceName();
+
+	    if(name != null)
+		networkInterface = NetworkInterface.getByName(name);
+	}
+
+	if(networkInterface == null ||
+	   !networkInterface.isUp() ||
+	   !networkInterface.supportsMulticast())
+	    throw new Exception();
+
+	return networkInterface;
+    }
+
+    private void connectChannel() throws Exception
+    {
+	InetAddress inetAddress = InetAddress.getByName(m_ipAddress);
+	NetworkInterface networkInterface = multicastInterface();
+
+	m_channel = DatagramChannel.open
+	    (inetAddress instanceof Inet6Address ?
+	     StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+	m_channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+	m_channel.bind(new InetSocketAddress(Integer.parseInt(m_ipPort)));
+	m_channel.setOption
+	    (StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+	m_channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+	m_channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, TTL);
+	m_membershipKey = m_channel.join(inetAddress, networkInterface);
+
+	if(!UdpEngine.getInstance().register(m_channel, this))
+	    throw new Exception();
+    }
+
+    private void sendChannel(byte bytes[], int offset, int length)
+	throws Exception
+    {
+	/*
+	** The channel is non-blocking. A datagram is either
+	** written completely or not at all.
+	*/
+
+	ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, offset, length);
+	InetSocketAddress inetSocketAddress = new InetSocketAddress
+	    (InetAddress.getByName(m_ipAddress), Integer.parseInt(m_ipPort));
+
+	while(m_channel.send(byteBuffer, inetSocketAddress) == 0)
+	    if(!awaitWritable(m_channel))
+		throw new Exception();
+    }
+
     protected String getLocalIp()
     {
 	return m_ipAddress;
@@ -52,6 +135,9 @@ public class UdpMulticastNeighbor extends Neighbor
     {
 	try
 	{
+	    if(m_channel != null)
+		return isNetworkConnected() && m_channel.isOpen();
+
 	    return isNetworkConnected() &&
 		m_socket != null &&
 		!m_socket.isClosed();
@@ -62,29 +148,31 @@ public class UdpMulticastNeighbor extends Neighbor
 	}
     }
 
-    protected boolean send(String message)
+    protected boolean send(MessageEnvelope message)
     {
 	if(!connected() || message == null || message.isEmpty())
 	    return false;
 
 	try
 	{
-	    StringBuilder stringBuilder = new StringBuilder(message);
+	    byte bytes[] = message.bytes();
 
-	    while(stringBuilder.length() > 0)
+	    for(int offset = 0; offset < bytes.length; offset += 576)
 	    {
 		if(m_disconnected.get())
 		    return false;
 
-		byte bytes[] = stringBuilder.substring
-		    (0, Math.min(576, stringBuilder.length())).getBytes();
-
-		m_socket.send
-		    (new DatagramPacket(bytes,
-					bytes.length,
-					InetAddress.getByName(m_ipAddress),
-					Integer.parseInt(m_ipPort)));
-		stringBuilder.delete(0, bytes.length);
+		int length = Math.min(576, bytes.length - offset);
+
+		if(m_channel != null)
+		    sendChannel(bytes, offset, length);
+		else
+		    m_socket.send
+			(new DatagramPacket(bytes,
+					    offset,
+					    length,
+					    InetAddress.getByName(m_ipAddress),
+					    Integer.parseInt(m_ipPort)));
 	    }
 
 	    Kernel.writeCongestionDigest(message);
@@ -105,7 +193,9 @@ public class UdpMulticastNeighbor extends Neighbor
     {
 	try
 	{
-	    if(m_socket != null && !m_socket.isClosed())
+	    if(m_channel != null && m_channel.isOpen())
+		return m_channel.socket().getLocalPort();
+	    else if(m_socket != null && !m_socket.isClosed())
 		return m_socket.getLocalPort();
 	}
 	catch(Exception exception)
@@ -123,7 +213,24 @@ public class UdpMulticastNeighbor extends Neighbor
     protected void disconnect()
     {
 	super.disconnect();
-	m_databaseHelper.deleteRoutingEntry(m_uuid.toString());
+	Kernel.getInstance().deleteRoutingEntry(m_uuid.toString());
+
+	try
+	{
+	    if(m_membershipKey != null)
+		m_membershipKey.drop();
+
+	    if(m_channel != null)
+		m_channel.close();
+	}
+	catch(Exception exception)
+	{
+	}
+	finally
+	{
+	    m_channel = null;
+	    m_membershipKey = null;
+	}
 
 	try
 	{
@@ -143,6 +250,12 @@ public class UdpMulticastNeighbor extends Neighbor
 	}
     }
 
+    protected void shutdown()
+    {
+	disconnect();
+	super.shutdown();
+    }
+
     public UdpMulticastNeighbor(String ipAddress,
 				String ipPort,
 				String scopeId,
@@ -150,15 +263,31 @@ public class UdpMulticastNeighbor extends Neighbor
 				int oid)
     {
 	super(ipAddress, ipPort, scopeId, "UDP", version, false, true, oid);
+	m_scopeId = scopeId == null ? "" : scopeId;
+
+	/*
+	** Multicast channels require Android 7.0. Newer releases
+	** receive datagrams through the shared UdpEngine.
+	*/
+
+	if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+	    return;
+
 	m_readSocketScheduler.scheduleAtFixedRate(new Runnable()
 	{
+	    private DatagramPacket m_datagramPacket = null;
 	    private boolean m_error = false;
 
+	    /*
+	    ** The receive() below blocks. A pooled buffer would be
+	    ** retained while the socket is idle.
+	    */
+
+	    private final byte m_bytes[] = new byte[BYTES_PER_DATAGRAM_READ];
+
 	    @Override
 	    public void run()
 	    {
-		ByteArrayOutputStream byteArrayOutputStream = null;
-
 		try
 		{
 		    if(!connected() && !m_disconnected.get())
@@ -183,14 +312,16 @@ public class UdpMulticastNeighbor extends Neighbor
 			    return;
 		    }
 
-		    DatagramPacket datagramPacket = null;
-		    byte bytes[] = new byte[BYTES_PER_READ];
-
-		    datagramPacket = new DatagramPacket(bytes, bytes.length);
+		    if(m_datagramPacket == null)
+			m_datagramPacket = new DatagramPacket
+			    (m_bytes, BYTES_PER_DATAGRAM_READ);
+		    else
+			m_datagramPacket.setData
+			    (m_bytes, 0, BYTES_PER_DATAGRAM_READ);
 
 		    try
 		    {
-			m_socket.receive(datagramPacket);
+			m_socket.receive(m_datagramPacket);
 		    }
 		    catch(Exception exception)
 		    {
@@ -200,16 +331,7 @@ public class UdpMulticastNeighbor extends Neighbor
 			return;
 		    }
 
-		    if(datagramPacket.getLength() > 0)
-		    {
-			byteArrayOutputStream = new ByteArrayOutputStream();
-			byteArrayOutputStream.write
-			    (datagramPacket.getData(),
-			     0,
-			     datagramPacket.getLength());
-		    }
-
-		    int bytesRead = datagramPacket.getLength();
+		    int bytesRead = m_datagramPacket.getLength();
 
 		    if(bytesRead < 0)
 		    {
@@ -222,58 +344,20 @@ public class UdpMulticastNeighbor extends Neighbor
 			return;
 
 		    m_bytesRead.getAndAdd(bytesRead);
+		    m_lastSuccessfulRead.set(System.nanoTime());
 		    m_lastTimeRead.set(System.nanoTime());
 
-		    if(byteArrayOutputStream != null &&
-		       m_stringBuffer.length() < MAXIMUM_BYTES)
+		    if(m_stringBuffer.length() < MAXIMUM_BYTES)
 			m_stringBuffer.append
-			    (new String(byteArrayOutputStream.toByteArray()));
+			    (new String(m_bytes, 0, bytesRead));
 		}
 		catch(Exception exception)
 		{
 		}
-		finally
-		{
-		    try
-		    {
-			if(byteArrayOutputStream != null)
-			    byteArrayOutputStream.close();
-		    }
-		    catch(Exception exception)
-		    {
-		    }
-		}
 	    }
 	}, 0L, READ_SOCKET_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    public void abort()
-    {
-	disconnect();
-	super.abort();
-
-	synchronized(m_readSocketScheduler)
-	{
-	    try
-	    {
-		m_readSocketScheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-
-	    try
-	    {
-		if(!m_readSocketScheduler.
-		   awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-		    m_readSocketScheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
-    }
-
     public void connect()
     {
 	if(connected())
@@ -286,11 +370,18 @@ public class UdpMulticastNeighbor extends Neighbor
 	    m_disconnected.set(false);
 	    m_lastParsed.set(System.currentTimeMillis());
 	    m_lastTimeRead.set(System.nanoTime());
-	    m_socket = new MulticastSocket(Integer.parseInt(m_ipPort));
-	    m_socket.joinGroup(InetAddress.getByName(m_ipAddress));
-	    m_socket.setLoopbackMode(true);
-	    m_socket.setSoTimeout(SO_TIMEOUT);
-	    m_socket.setTimeToLive(TTL);
+
+	    if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+		connectChannel();
+	    else
+	    {
+		m_socket = new MulticastSocket(Integer.parseInt(m_ipPort));
+		m_socket.joinGroup(InetAddress.getByName(m_ipAddress));
+		m_socket.setLoopbackMode(true);
+		m_socket.setSoTimeout(SO_TIMEOUT);
+		m_socket.setTimeToLive(TTL);
+	    }
+
 	    m_startTime.set(System.nanoTime());
 	    setError("");
 
@@ -25,24 +25,25 @@
 ** SMOKESTACK, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 
+
 package org.purple.smokestack;
 
-import java.io.ByteArrayOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.concurrent.TimeUnit;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 public class UdpNeighbor extends Neighbor
 {
-    private DatagramSocket m_socket = null;
+    private DatagramChannel m_channel = null;
 
     protected String getLocalIp()
     {
 	try
 	{
-	    if(m_socket != null && m_socket.getLocalAddress() != null)
-		return m_socket.getLocalAddress().getHostAddress();
+	    if(m_channel != null &&
+	       m_channel.socket().getLocalAddress() != null)
+		return m_channel.socket().getLocalAddress().getHostAddress();
 	}
 	catch(Exception exception)
 	{
@@ -64,8 +65,8 @@ public class UdpNeighbor extends Neighbor
 	try
 	{
 	    return isNetworkConnected() &&
-		m_socket != null &&
-		!m_socket.isClosed();
+		m_channel != null &&
+		m_channel.isOpen();
 	}
 	catch(Exception exception)
 	{
@@ -73,29 +74,32 @@ public class UdpNeighbor extends Neighbor
 	}
     }
 
-    protected boolean send(String message)
+    protected boolean send(MessageEnvelope message)
     {
 	if(!connected() || message == null || message.isEmpty())
 	    return false;
 
 	try
 	{
-	    StringBuilder stringBuilder = new StringBuilder(message);
+	    byte bytes[] = message.bytes();
 
-	    while(stringBuilder.length() > 0)
+	    for(int offset = 0; offset < bytes.length; offset += 576)
 	    {
 		if(m_disconnected.get())
 		    return false;
 
-		byte bytes[] = stringBuilder.substring
-		    (0, Math.min(576, stringBuilder.length())).getBytes();
+		int length = Math.min(576, bytes.length - offset);
+
+		/*
+		** The channel is non-blocking. A datagram is either
+		** written completely or not at all.
+		*/
+
+		ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, offset, length);
 
-		m_socket.send
-		    (new DatagramPacket(bytes,
-					bytes.length,
-					InetAddress.getByName(m_ipAddress),
-					Integer.parseInt(m_ipPort)));
-		stringBuilder.delete(0, bytes.length);
+		while(m_channel.write(byteBuffer) == 0)
+		    if(!awaitWritable(m_channel))
+			throw new Exception();
 	    }
 
 	    Kernel.writeCongestionDigest(message);
@@ -116,8 +120,8 @@ public class UdpNeighbor extends Neighbor
     {
 	try
 	{
-	    if(m_socket != null && !m_socket.isClosed())
-		return m_socket.getLocalPort();
+	    if(m_channel != null && m_channel.isOpen())
+		return m_channel.socket().getLocalPort();
 	}
 	catch(Exception exception)
 	{
@@ -142,152 +146,40 @@ public class UdpNeighbor extends Neighbor
     protected void disconnect()
     {
 	super.disconnect();
-	m_databaseHelper.deleteRoutingEntry(m_uuid.toString());
+	Kernel.getInstance().deleteRoutingEntry(m_uuid.toString());
 
 	try
 	{
-	    if(m_socket != null)
-		m_socket.close();
+	    if(m_channel != null)
+		m_channel.close();
 	}
 	catch(Exception exception)
 	{
 	}
 	finally
 	{
-	    m_socket = null;
+	    m_channel = null;
 	    reset();
 	}
     }
 
+    protected void shutdown()
+    {
+	disconnect();
+	super.shutdown();
+    }
+
     public UdpNeighbor(String ipAddress,
 		       String ipPort,
 		       String scopeId,
 		       String version,
 		       int oid)
     {
-	super(ipAddress, ipPort, scopeId, "UDP", version, false, true, oid);
-	m_readSocketScheduler.scheduleAtFixedRate(new Runnable()
-	{
-	    private boolean m_error = false;
-
-	    @Override
-	    public void run()
-	    {
-		ByteArrayOutputStream byteArrayOutputStream = null;
-
-		try
-		{
-		    if(!connected() && !m_disconnected.get())
-			synchronized(m_mutex)
-			{
-			    try
-			    {
-				m_mutex.wait(WAIT_TIMEOUT);
-			    }
-			    catch(Exception exception)
-			    {
-			    }
-			}
-
-		    if(!connected())
-			return;
-		    else if(m_error)
-		    {
-			if(connected())
-			    m_error = false;
-			else
-			    return;
-		    }
-
-		    DatagramPacket datagramPacket = null;
-		    byte bytes[] = new byte[BYTES_PER_READ];
-
-		    datagramPacket = new DatagramPacket(bytes, bytes.length);
-
-		    try
-		    {
-			m_socket.receive(datagramPacket);
-		    }
-		    catch(Exception exception)
-		    {
-			m_error = true;
-			setError("A socket receive() error occurred.");
-			disconnect();
-			return;
-		    }
-
-		    if(datagramPacket.getLength() > 0)
-		    {
-			byteArrayOutputStream = new ByteArrayOutputStream();
-			byteArrayOutputStream.write
-			    (datagramPacket.getData(),
-			     0,
-			     datagramPacket.getLength());
-		    }
-
-		    int bytesRead = datagramPacket.getLength();
-
-		    if(bytesRead < 0)
-		    {
-			m_error = true;
-			setError("A socket receive() error occurred.");
-			disconnect();
-			return;
-		    }
-		    else if(bytesRead == 0)
-			return;
-
-		    m_bytesRead.getAndAdd(bytesRead);
-		    m_lastTimeRead.set(System.nanoTime());
-
-		    if(byteArrayOutputStream != null &&
-		       m_stringBuffer.length() < MAXIMUM_BYTES)
-			m_stringBuffer.append
-			    (new String(byteArrayOutputStream.toByteArray()));
-		}
-		catch(Exception exception)
-		{
-		}
-		finally
-		{
-		    try
-		    {
-			if(byteArrayOutputStream != null)
-			    byteArrayOutputStream.close();
-		    }
-		    catch(Exception exception)
-		    {
-		    }
-		}
-	    }
-	}, 0L, READ_SOCKET_INTERVAL, TimeUnit.MILLISECONDS);
-    }
-
-    public void abort()
-    {
-	disconnect();
-	super.abort();
-
-	synchronized(m_readSocketScheduler)
-	{
-	    try
-	    {
-		m_readSocketScheduler.shutdown();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
+	/*
+	** Datagrams are received by the shared UdpEngine.
+	*/
 
-	    try
-	    {
-		if(!m_readSocketScheduler.
-		   awaitTermination(AWAIT_TERMINATION, TimeUnit.SECONDS))
-		    m_readSocketScheduler.shutdownNow();
-	    }
-	    catch(Exception exception)
-	    {
-	    }
-	}
+	super(ipAddress, ipPort, scopeId, "UDP", version, false, true, oid);
     }
 
     public void connect()
@@ -302,11 +194,14 @@ public class UdpNeighbor extends Neighbor
 	    m_disconnected.set(false);
 	    m_lastParsed.set(System.currentTimeMillis());
 	    m_lastTimeRead.set(System.nanoTime());
-	    m_socket = new DatagramSocket();
-	    m_socket.connect
-		(InetAddress.getByName(m_ipAddress),
-		 Integer.parseInt(m_ipPort));
-	    m_socket.setSoTimeout(SO_TIMEOUT);
+	    m_channel = DatagramChannel.open();
+	    m_channel.connect
+		(new InetSocketAddress(InetAddress.getByName(m_ipAddress),
+				       Integer.parseInt(m_ipPort)));
+
+	    if(!UdpEngine.getInstance().register(m_channel, this))
+		throw new Exception();
+
 	    m_startTime.set(System.nanoTime());
 	    setError("");
 